@@ -4,6 +4,8 @@ import android.content.Context;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.graphics.Typeface;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.v7.widget.LinearLayoutManager;
@@ -24,6 +26,7 @@ import com.layer.atlas.provider.Participant;
 import com.layer.atlas.provider.ParticipantProvider;
 import com.layer.atlas.util.AvatarStyle;
 import com.layer.atlas.util.EditTextUtil;
+import com.layer.atlas.util.Util;
 import com.layer.atlas.util.views.EmptyDelEditText;
 import com.layer.atlas.util.views.FlowLayout;
 import com.layer.atlas.util.views.MaxHeightScrollView;
@@ -40,12 +43,31 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class AtlasAddressBar extends LinearLayout {
+    // Delay after the last keystroke before filtering participants
+    private static final long FILTER_DEBOUNCE_MS = 150;
+
+    // Filters participants off the UI thread, shared by all AtlasAddressBars
+    private static final Executor FILTER_EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, AtlasAddressBar.class.getSimpleName());
+            thread.setPriority(Thread.MIN_PRIORITY + 1);
+            return thread;
+        }
+    });
+
     private LayerClient mLayerClient;
     private ParticipantProvider mParticipantProvider;
     private Picasso mPicasso;
@@ -116,7 +138,8 @@ public class AtlasAddressBar extends LinearLayout {
             }
         });
 
-        // Refresh available participants and conversations with every search string change
+        // Refresh available participants with every search string change; conversations depend
+        // only on the selected participants
         mFilter.addTextChangedListener(new TextWatcher() {
             @Override
             public void beforeTextChanged(CharSequence s, int start, int count, int after) {
@@ -130,7 +153,8 @@ public class AtlasAddressBar extends LinearLayout {
 
             @Override
             public void afterTextChanged(Editable e) {
-                refresh();
+                if (mAvailableConversationAdapter == null) return;
+                mAvailableConversationAdapter.filter(getSearchFilter(), mSelectedParticipantIds, FILTER_DEBOUNCE_MS);
             }
         });
         return this;
@@ -358,6 +382,163 @@ public class AtlasAddressBar extends LinearLayout {
         }
     }
 
+    /**
+     * ParticipantDiff holds the notifications turning one displayed Participant list into another,
+     * computed off the UI thread.  Consecutive insertions and removals are batched into ranges.
+     * Past MAX_MOVES_AND_CHANGES moves and changes, the diff gives up and reloads all items
+     * instead, which is cheaper than walking and animating that many individual notifications.
+     */
+    private static class ParticipantDiff {
+        private static final int MAX_MOVES_AND_CHANGES = 20;
+
+        private static final int OP_INSERT = 0;
+        private static final int OP_REMOVE = 1;
+        private static final int OP_MOVE = 2;
+        private static final int OP_CHANGE = 3;
+
+        final int mBaseVersion;
+        final List<Participant> mParticipants;
+
+        // Notifications as {op, position or start, to position or count}
+        private final List<int[]> mOps = new ArrayList<int[]>();
+        private int mMovesAndChanges = 0;
+        private boolean mReload = false;
+
+        // Pending batched insertion or removal
+        private int mBatchOp = -1;
+        private int mBatchStart;
+        private int mBatchCount;
+
+        ParticipantDiff(int baseVersion, List<String> oldIds, List<Participant> oldParticipants, List<Participant> participants) {
+            mBaseVersion = baseVersion;
+            mParticipants = participants;
+            compute(oldIds, oldParticipants, participants);
+        }
+
+        /**
+         * Sends the notifications to the given adapter.  Must be called on the UI thread.
+         */
+        void dispatch(RecyclerView.Adapter<?> adapter) {
+            if (mReload) {
+                adapter.notifyDataSetChanged();
+                return;
+            }
+            for (int[] op : mOps) {
+                switch (op[0]) {
+                    case OP_INSERT:
+                        adapter.notifyItemRangeInserted(op[1], op[2]);
+                        break;
+                    case OP_REMOVE:
+                        adapter.notifyItemRangeRemoved(op[1], op[2]);
+                        break;
+                    case OP_MOVE:
+                        adapter.notifyItemMoved(op[1], op[2]);
+                        break;
+                    case OP_CHANGE:
+                        adapter.notifyItemChanged(op[1]);
+                        break;
+                }
+            }
+        }
+
+        private void compute(List<String> oldIds, List<Participant> oldParticipants, List<Participant> participants) {
+            Map<String, Integer> oldIndexes = new HashMap<String, Integer>(oldIds.size());
+            for (int i = 0; i < oldIds.size(); i++) {
+                oldIndexes.put(oldIds.get(i), i);
+            }
+            Set<String> newIdSet = new HashSet<String>(participants.size());
+            for (Participant participant : participants) {
+                newIdSet.add(participant.getId());
+            }
+            Set<String> movedOut = new HashSet<String>();
+
+            // Walk both lists, tracking the adapter position of the next item to settle
+            int position = 0;
+            int oldIndex = 0;
+            int newIndex = 0;
+            while (newIndex < participants.size()) {
+                while (oldIndex < oldIds.size() && movedOut.contains(oldIds.get(oldIndex))) oldIndex++;
+                String newId = participants.get(newIndex).getId();
+                Integer newIdOldIndex = oldIndexes.get(newId);
+                if (newIdOldIndex == null) {
+                    // Inserted
+                    batch(OP_INSERT, position);
+                    position++;
+                    newIndex++;
+                    continue;
+                }
+                String oldId = oldIds.get(oldIndex);
+                if (!newIdSet.contains(oldId)) {
+                    // Removed
+                    batch(OP_REMOVE, position);
+                    oldIndex++;
+                    continue;
+                }
+                flush();
+                if (oldId.equals(newId)) {
+                    // Kept
+                    oldIndex++;
+                } else {
+                    // Moved up from later in the old list, past the old items not yet settled
+                    if (!countMoveOrChange()) return;
+                    int from = position;
+                    for (int i = oldIndex; i < newIdOldIndex; i++) {
+                        if (!movedOut.contains(oldIds.get(i))) from++;
+                    }
+                    mOps.add(new int[]{OP_MOVE, from, position});
+                    movedOut.add(newId);
+                }
+                if (!TextUtils.equals(oldParticipants.get(newIdOldIndex).getName(), participants.get(newIndex).getName())) {
+                    if (!countMoveOrChange()) return;
+                    mOps.add(new int[]{OP_CHANGE, position, 0});
+                }
+                position++;
+                newIndex++;
+            }
+            // Remaining old items were all removed
+            for (; oldIndex < oldIds.size(); oldIndex++) {
+                if (!movedOut.contains(oldIds.get(oldIndex))) batch(OP_REMOVE, position);
+            }
+            flush();
+        }
+
+        /**
+         * Counts a move or change, switching to a full reload once there are too many.  Returns
+         * `false` if the diff should stop.
+         */
+        private boolean countMoveOrChange() {
+            if (++mMovesAndChanges <= MAX_MOVES_AND_CHANGES) return true;
+            mReload = true;
+            mOps.clear();
+            return false;
+        }
+
+        /**
+         * Batches consecutive insertions or removals into range notifications.
+         */
+        private void batch(int op, int position) {
+            if (mBatchOp == op) {
+                if (op == OP_INSERT && position == mBatchStart + mBatchCount) {
+                    mBatchCount++;
+                    return;
+                }
+                if (op == OP_REMOVE && position == mBatchStart) {
+                    mBatchCount++;
+                    return;
+                }
+            }
+            flush();
+            mBatchOp = op;
+            mBatchStart = position;
+            mBatchCount = 1;
+        }
+
+        private void flush() {
+            if (mBatchOp >= 0) mOps.add(new int[]{mBatchOp, mBatchStart, mBatchCount});
+            mBatchOp = -1;
+        }
+    }
+
     /**
      * ParticipantChip implements the View used to populate the selected participant FlowLayout.
      */
@@ -426,7 +607,14 @@ public class AtlasAddressBar extends LinearLayout {
 
         private final ArrayList<String> mParticipantIds = new ArrayList<String>();
         private final ArrayList<Participant> mParticipants = new ArrayList<Participant>();
-        private final Map<String, Participant> mParticipantMap = new HashMap<String, Participant>();
+
+        // Filtering state: the latest requested filter supersedes any older one still running
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+        private final AtomicInteger mFilterGeneration = new AtomicInteger();
+        private Runnable mPendingFilter;
+
+        // Incremented with each change to the displayed Participants; guarded by mParticipantIds
+        private int mParticipantsVersion = 0;
 
         public AvailableConversationAdapter(LayerClient client, ParticipantProvider participantProvider, Picasso picasso) {
             this(client, participantProvider, picasso, null);
@@ -445,29 +633,100 @@ public class AtlasAddressBar extends LinearLayout {
          * to return only those Conversations with the given set of selected Participants.
          */
         public void refresh(String filter, Set<String> selectedParticipantIds) {
-            // Apply text search filter to available participants
-            String userId = mLayerClient.getAuthenticatedUserId();
-            synchronized (mParticipantIds) {
-                mParticipantProvider.getMatchingParticipants(filter, mParticipantMap);
-                mParticipants.clear();
-                for (Map.Entry<String, Participant> entry : mParticipantMap.entrySet()) {
-                    // Don't show participants we've already selected
-                    if (selectedParticipantIds.contains(entry.getKey())) continue;
-                    if (entry.getKey().equals(userId)) continue;
-                    mParticipants.add(entry.getValue());
+            filter(filter, selectedParticipantIds, 0);
+            if (mShowConversations) {
+                queryConversations(selectedParticipantIds);
+            }
+        }
+
+        /**
+         * Re-queries the ParticipantProvider with the given filter, leaving Conversations as they
+         * are.  Participants are filtered on a background thread after the given delay, which
+         * restarts with each call, and the change is applied as insertions, removals, and moves.
+         */
+        public void filter(final String filter, Set<String> selectedParticipantIds, long delayMillis) {
+            final Set<String> selected = new LinkedHashSet<String>(selectedParticipantIds);
+            final int generation = mFilterGeneration.incrementAndGet();
+            if (mPendingFilter != null) mHandler.removeCallbacks(mPendingFilter);
+            mPendingFilter = new Runnable() {
+                @Override
+                public void run() {
+                    mPendingFilter = null;
+                    filterParticipants(filter, selected, generation);
+                }
+            };
+            if (delayMillis > 0) {
+                mHandler.postDelayed(mPendingFilter, delayMillis);
+            } else {
+                mPendingFilter.run();
+            }
+        }
+
+        private void filterParticipants(final String filter, final Set<String> selectedParticipantIds, final int generation) {
+            final String userId = mLayerClient.getAuthenticatedUserId();
+            FILTER_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // Skip filters superseded while queued
+                    if (generation != mFilterGeneration.get()) return;
+
+                    // Apply text search filter to available participants
+                    Map<String, Participant> matches = mParticipantProvider.getMatchingParticipants(filter, null);
+                    ArrayList<Participant> participants = new ArrayList<Participant>(matches.size());
+                    for (Map.Entry<String, Participant> entry : matches.entrySet()) {
+                        // Don't show participants we've already selected
+                        if (selectedParticipantIds.contains(entry.getKey())) continue;
+                        if (entry.getKey().equals(userId)) continue;
+                        participants.add(entry.getValue());
+                    }
+                    // Keep the order of providers that rank their matches
+                    if (!(matches instanceof LinkedHashMap)) Collections.sort(participants);
+                    if (generation != mFilterGeneration.get()) return;
+
+                    // Diff against the displayed Participants here, leaving only notifying to the UI thread
+                    ArrayList<String> oldIds;
+                    ArrayList<Participant> oldParticipants;
+                    int version;
+                    synchronized (mParticipantIds) {
+                        oldIds = new ArrayList<String>(mParticipantIds);
+                        oldParticipants = new ArrayList<Participant>(mParticipants);
+                        version = mParticipantsVersion;
+                    }
+                    final ParticipantDiff diff = new ParticipantDiff(version, oldIds, oldParticipants, participants);
+                    if (generation != mFilterGeneration.get()) return;
+
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation != mFilterGeneration.get()) return;
+                            setParticipants(diff);
+                        }
+                    });
                 }
-                Collections.sort(mParticipants);
+            });
+        }
 
+        /**
+         * Replaces the displayed Participants with the diff's and notifies the difference.  Must be
+         * called on the UI thread.
+         */
+        private void setParticipants(ParticipantDiff diff) {
+            boolean current;
+            synchronized (mParticipantIds) {
+                current = diff.mBaseVersion == mParticipantsVersion;
+                mParticipantsVersion++;
+                mParticipants.clear();
+                mParticipants.addAll(diff.mParticipants);
                 mParticipantIds.clear();
-                for (Participant p : mParticipants) {
+                for (Participant p : diff.mParticipants) {
                     mParticipantIds.add(p.getId());
                 }
             }
-            // TODO: compute add/remove/move and notify those instead of complete notify
-            notifyDataSetChanged();
-
-            if (mShowConversations) {
-                queryConversations(selectedParticipantIds);
+            if (current) {
+                diff.dispatch(this);
+            } else {
+                // The displayed Participants changed since the diff was computed
+                notifyDataSetChanged();
             }
         }
 
@@ -528,7 +787,10 @@ public class AtlasAddressBar extends LinearLayout {
                         for (String participantId : conversation.getParticipants()) {
                             if (participantId.equals(userId)) continue;
                             ids.add(participantId);
-                            Participant p = mParticipantProvider.getParticipant(participantId);
+                        }
+                        Map<String, Participant> participants = Util.getParticipants(mParticipantProvider, ids, null);
+                        for (String participantId : ids) {
+                            Participant p = participants.get(participantId);
                             if (p == null) continue;
                             names.add(p.getName());
                         }
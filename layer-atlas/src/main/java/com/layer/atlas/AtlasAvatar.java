@@ -6,14 +6,17 @@ import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.RectF;
+import android.graphics.Typeface;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.util.AttributeSet;
+import android.util.LruCache;
 import android.view.View;
 import android.view.ViewGroup;
 
 import com.layer.atlas.provider.Participant;
 import com.layer.atlas.provider.ParticipantProvider;
+import com.layer.atlas.util.AvatarCache;
 import com.layer.atlas.util.AvatarStyle;
 import com.layer.atlas.util.Util;
 import com.layer.atlas.util.picasso.transformations.CircleTransform;
@@ -39,6 +42,10 @@ public class AtlasAvatar extends View {
     private static final Paint PAINT_TRANSPARENT = new Paint();
     private static final Paint PAINT_BITMAP = new Paint();
 
+    // Measured initials glyph bounds shared across avatars, by initials, text size, and typeface
+    private static final int INITIALS_BOUNDS_CACHE_SIZE = 256;
+    private static final LruCache<InitialsKey, Rect> sInitialsBounds = new LruCache<InitialsKey, Rect>(INITIALS_BOUNDS_CACHE_SIZE);
+
     private final Paint mPaintInitials = new Paint();
     private final Paint mPaintBorder = new Paint();
     private final Paint mPaintBackground = new Paint();
@@ -58,11 +65,13 @@ public class AtlasAvatar extends View {
 
     private ParticipantProvider mParticipantProvider;
     private Picasso mPicasso;
+    private AvatarCache mAvatarCache = AvatarCache.getDefault();
     private Set<String> mParticipants = new LinkedHashSet<String>();
 
     // Initials and Picasso image targets by user ID
     private final Map<String, ImageTarget> mImageTargets = new HashMap<String, ImageTarget>();
     private final Map<String, String> mInitials = new HashMap<String, String>();
+    private final Map<String, Rect> mInitialsBounds = new HashMap<String, Rect>();
     private final List<ImageTarget> mPendingLoads = new ArrayList<ImageTarget>();
 
     // Sizing set in setClusterSizes() and used in onDraw()
@@ -74,7 +83,6 @@ public class AtlasAvatar extends View {
     private float mDeltaY;
     private float mTextSize;
 
-    private Rect mRect = new Rect();
     private RectF mContentRect = new RectF();
 
     public AtlasAvatar(Context context) {
@@ -101,15 +109,27 @@ public class AtlasAvatar extends View {
         mPaintBackground.setColor(getResources().getColor(R.color.atlas_avatar_background));
         mPaintBorder.setColor(getResources().getColor(R.color.atlas_avatar_border));
         mPaintInitials.setColor(getResources().getColor(R.color.atlas_avatar_text));
+        mInitialsBounds.clear();
 
         return this;
     }
 
+    /**
+     * Sets the AvatarCache finished avatars are shared through.  Defaults to
+     * AvatarCache.getDefault().
+     */
+    public AtlasAvatar setAvatarCache(AvatarCache avatarCache) {
+        mAvatarCache = avatarCache;
+        return this;
+    }
+
     public AtlasAvatar setStyle(AvatarStyle avatarStyle) {
         mPaintBackground.setColor(avatarStyle.getAvatarBackgroundColor());
         mPaintBorder.setColor(avatarStyle.getAvatarBorderColor());
         mPaintInitials.setColor(avatarStyle.getAvatarTextColor());
         mPaintInitials.setTypeface(avatarStyle.getAvatarTextTypeface());
+        mInitialsBounds.clear();
+        invalidate();
         return this;
     }
 
@@ -137,12 +157,15 @@ public class AtlasAvatar extends View {
     }
 
     private void update() {
+        // Look up all participants at once
+        Map<String, Participant> participants = Util.getParticipants(mParticipantProvider, mParticipants, null);
+
         // Limit to MAX_AVATARS valid avatars, prioritizing participants with avatars.
         if (mParticipants.size() > MAX_AVATARS) {
             Queue<String> withAvatars = new LinkedList<String>();
             Queue<String> withoutAvatars = new LinkedList<String>();
             for (String participantId : mParticipants) {
-                Participant participant = mParticipantProvider.getParticipant(participantId);
+                Participant participant = participants.get(participantId);
                 if (participant == null) continue;
                 if (participant.getAvatarUrl() != null) {
                     withAvatars.add(participantId);
@@ -168,6 +191,7 @@ public class AtlasAvatar extends View {
         List<ImageTarget> recyclableTargets = new ArrayList<ImageTarget>();
         for (String removed : diff.removed) {
             mInitials.remove(removed);
+            mInitialsBounds.remove(removed);
             ImageTarget target = mImageTargets.remove(removed);
             if (target != null) {
                 mPicasso.cancelRequest(target);
@@ -176,7 +200,7 @@ public class AtlasAvatar extends View {
         }
 
         for (String added : diff.added) {
-            Participant participant = mParticipantProvider.getParticipant(added);
+            Participant participant = participants.get(added);
             if (participant == null) continue;
             mInitials.put(added, Util.getInitials(participant));
 
@@ -186,18 +210,17 @@ public class AtlasAvatar extends View {
             } else {
                 target = recyclableTargets.remove(0);
             }
-            target.setUrl(participant.getAvatarUrl());
+            target.setParticipant(added, participant.getAvatarUrl());
             mImageTargets.put(added, target);
             toLoad.add(target);
         }
 
-        // Cancel existing in case the size or anything else changed.
-        // TODO: make caching intelligent wrt sizing
+        // Reload existing in case the size or URL changed; unchanged avatars hit the AvatarCache.
         for (String existing : diff.existing) {
-            Participant participant = mParticipantProvider.getParticipant(existing);
+            Participant participant = participants.get(existing);
             if (participant == null) continue;
             ImageTarget existingTarget = mImageTargets.get(existing);
-            mPicasso.cancelRequest(existingTarget);
+            existingTarget.setParticipant(existing, participant.getAvatarUrl());
             toLoad.add(existingTarget);
         }
         for (ImageTarget target : mPendingLoads) {
@@ -232,6 +255,8 @@ public class AtlasAvatar extends View {
         mOuterRadius = fraction * dimension / 2f;
         mInnerRadius = mOuterRadius - (density * BORDER_SIZE_DP);
         mTextSize = mInnerRadius * 4f / 5f;
+        mPaintInitials.setTextSize(mTextSize);
+        mInitialsBounds.clear();
         mCenterX = getPaddingLeft() + mOuterRadius;
         mCenterY = getPaddingTop() + mOuterRadius;
 
@@ -242,11 +267,21 @@ public class AtlasAvatar extends View {
         synchronized (mPendingLoads) {
             if (!mPendingLoads.isEmpty()) {
                 int size = Math.round(hasBorder ? (mInnerRadius * 2f) : (mOuterRadius * 2f));
+                boolean multi = avatarCount > 1;
                 for (ImageTarget imageTarget : mPendingLoads) {
+                    // Already showing this avatar at this size and shape
+                    if (imageTarget.isLoaded(size, multi)) continue;
+                    mPicasso.cancelRequest(imageTarget);
+                    Bitmap cached = mAvatarCache.get(imageTarget.getParticipantId(), imageTarget.getUrl(), size, multi);
+                    if (cached != null) {
+                        imageTarget.setBitmap(cached, size, multi);
+                        continue;
+                    }
+                    imageTarget.setLoading(size, multi);
                     mPicasso.load(imageTarget.getUrl())
                             .tag(AtlasAvatar.TAG).noPlaceholder().noFade()
                             .centerCrop().resize(size, size)
-                            .transform((avatarCount > 1) ? MULTI_TRANSFORM : SINGLE_TRANSFORM)
+                            .transform(multi ? MULTI_TRANSFORM : SINGLE_TRANSFORM)
                             .into(imageTarget);
                 }
                 mPendingLoads.clear();
@@ -277,10 +312,13 @@ public class AtlasAvatar extends View {
             Bitmap bitmap = (imageTarget == null) ? null : imageTarget.getBitmap();
             if (bitmap == null) {
                 String initials = entry.getValue();
-                mPaintInitials.setTextSize(mTextSize);
-                mPaintInitials.getTextBounds(initials, 0, initials.length(), mRect);
+                Rect bounds = mInitialsBounds.get(entry.getKey());
+                if (bounds == null) {
+                    bounds = getInitialsBounds(initials);
+                    mInitialsBounds.put(entry.getKey(), bounds);
+                }
                 canvas.drawCircle(cx, cy, contentRadius, mPaintBackground);
-                canvas.drawText(initials, cx - mRect.centerX(), cy - mRect.centerY() - 1f, mPaintInitials);
+                canvas.drawText(initials, cx - bounds.centerX(), cy - bounds.centerY() - 1f, mPaintInitials);
             } else {
                 canvas.drawBitmap(bitmap, mContentRect.left, mContentRect.top, PAINT_BITMAP);
             }
@@ -292,31 +330,107 @@ public class AtlasAvatar extends View {
         }
     }
 
+    /**
+     * Returns the glyph bounds of the given initials at the current text size and typeface, from
+     * the shared bounds cache if available.  The returned Rect must not be modified.
+     */
+    private Rect getInitialsBounds(String initials) {
+        InitialsKey key = new InitialsKey(initials, mTextSize, mPaintInitials.getTypeface());
+        Rect bounds = sInitialsBounds.get(key);
+        if (bounds != null) return bounds;
+        bounds = new Rect();
+        mPaintInitials.getTextBounds(initials, 0, initials.length(), bounds);
+        sInitialsBounds.put(key, bounds);
+        return bounds;
+    }
+
+    private static class InitialsKey {
+        private final String mInitials;
+        private final float mTextSize;
+        private final Typeface mTypeface;
+
+        InitialsKey(String initials, float textSize, Typeface typeface) {
+            mInitials = initials;
+            mTextSize = textSize;
+            mTypeface = typeface;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof InitialsKey)) return false;
+            InitialsKey other = (InitialsKey) o;
+            // Typefaces are compared by identity, as styles share Typeface instances
+            return mTextSize == other.mTextSize && mTypeface == other.mTypeface && mInitials.equals(other.mInitials);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mInitials.hashCode();
+            result = 31 * result + Float.floatToIntBits(mTextSize);
+            result = 31 * result + System.identityHashCode(mTypeface);
+            return result;
+        }
+    }
+
     private static class ImageTarget implements Target {
         private final static AtomicLong sCounter = new AtomicLong(0);
         private final long mId;
         private final AtlasAvatar mCluster;
+        private String mParticipantId;
         private Uri mUrl;
         private Bitmap mBitmap;
 
+        // Size and shape of the current or in-flight bitmap, or 0 if none
+        private int mSize = 0;
+        private boolean mMulti;
+        private boolean mLoaded = false;
+
         public ImageTarget(AtlasAvatar cluster) {
             mId = sCounter.incrementAndGet();
             mCluster = cluster;
         }
 
-        public ImageTarget setUrl(Uri url) {
+        public ImageTarget setParticipant(String participantId, Uri url) {
+            if (!participantId.equals(mParticipantId) || (url == null ? mUrl != null : !url.equals(mUrl))) {
+                mBitmap = null;
+                mSize = 0;
+                mLoaded = false;
+            }
+            mParticipantId = participantId;
             mUrl = url;
             return this;
         }
 
+        public String getParticipantId() {
+            return mParticipantId;
+        }
+
         public Uri getUrl() {
             return mUrl;
         }
 
+        public boolean isLoaded(int size, boolean multi) {
+            return mLoaded && mSize == size && mMulti == multi;
+        }
+
+        public void setLoading(int size, boolean multi) {
+            mSize = size;
+            mMulti = multi;
+            mLoaded = false;
+        }
+
+        public void setBitmap(Bitmap bitmap, int size, boolean multi) {
+            mBitmap = bitmap;
+            mSize = size;
+            mMulti = multi;
+            mLoaded = true;
+            mCluster.invalidate();
+        }
+
         @Override
         public void onBitmapLoaded(Bitmap bitmap, Picasso.LoadedFrom from) {
-            mCluster.invalidate();
-            mBitmap = bitmap;
+            mCluster.mAvatarCache.put(mParticipantId, mUrl, mSize, mMulti, bitmap);
+            setBitmap(bitmap, mSize, mMulti);
         }
 
         @Override
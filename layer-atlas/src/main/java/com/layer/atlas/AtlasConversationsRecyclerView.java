@@ -15,10 +15,14 @@
  */
 package com.layer.atlas;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.res.TypedArray;
 import android.graphics.Color;
 import android.graphics.Typeface;
+import android.os.BatteryManager;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.helper.ItemTouchHelper;
@@ -36,8 +40,33 @@ import com.layer.sdk.messaging.Conversation;
 import com.squareup.picasso.Picasso;
 
 public class AtlasConversationsRecyclerView extends RecyclerView {
+    // Time the list must be idle before syncing history for Conversations off screen
+    private static final long DEFERRED_SYNC_DELAY_MS = 3000;
+
     AtlasConversationsAdapter mAdapter;
     private ItemTouchHelper mSwipeItemTouchHelper;
+    private LinearLayoutManager mLayoutManager;
+    private int mFirstVisible = NO_POSITION;
+    private int mLastVisible = NO_POSITION;
+
+    private final Runnable mAllowDeferredSync = new Runnable() {
+        @Override
+        public void run() {
+            if (mAdapter != null) mAdapter.getHistorySyncScheduler().setDeferredAllowed(true);
+        }
+    };
+
+    // Whether the device is charging, kept current by mPowerReceiver while attached
+    private boolean mCharging;
+    private final BroadcastReceiver mPowerReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            mCharging = Intent.ACTION_POWER_CONNECTED.equals(intent.getAction());
+            if (mAdapter != null && getScrollState() != SCROLL_STATE_IDLE) {
+                mAdapter.getHistorySyncScheduler().setDeferredAllowed(mCharging);
+            }
+        }
+    };
 
     private ConversationStyle conversationStyle;
 
@@ -63,6 +92,7 @@ public class AtlasConversationsRecyclerView extends RecyclerView {
         LinearLayoutManager manager = new LinearLayoutManager(getContext(), LinearLayoutManager.VERTICAL, false);
         manager.setStackFromEnd(false);
         setLayoutManager(manager);
+        mLayoutManager = manager;
 
         // Don't flash items when changing content
         setItemAnimator(new NoChangeAnimator());
@@ -70,11 +100,60 @@ public class AtlasConversationsRecyclerView extends RecyclerView {
         mAdapter = new AtlasConversationsAdapter(getContext(), layerClient, participantProvider, picasso, options);
         mAdapter.setStyle(conversationStyle);
         super.setAdapter(mAdapter);
+
+        // Sync history for the visible Conversations first, and the rest once idle or charging
+        mCharging = readCharging();
+        mAdapter.getHistorySyncScheduler().setDeferredAllowed(mCharging);
+        postDelayed(mAllowDeferredSync, DEFERRED_SYNC_DELAY_MS);
+        addOnScrollListener(new OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                removeCallbacks(mAllowDeferredSync);
+                if (newState == SCROLL_STATE_IDLE) {
+                    postDelayed(mAllowDeferredSync, DEFERRED_SYNC_DELAY_MS);
+                } else {
+                    mAdapter.getHistorySyncScheduler().setDeferredAllowed(mCharging);
+                }
+            }
+
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                // Also called after layout, so the first screen is prioritized
+                int first = mLayoutManager.findFirstVisibleItemPosition();
+                int last = mLayoutManager.findLastVisibleItemPosition();
+                if (first == NO_POSITION || (first == mFirstVisible && last == mLastVisible)) return;
+                mFirstVisible = first;
+                mLastVisible = last;
+                mAdapter.getHistorySyncScheduler().setVisibleRange(first, last);
+            }
+        });
         refresh();
 
         return this;
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        IntentFilter filter = new IntentFilter(Intent.ACTION_POWER_CONNECTED);
+        filter.addAction(Intent.ACTION_POWER_DISCONNECTED);
+        getContext().registerReceiver(mPowerReceiver, filter);
+        mCharging = readCharging();
+        if (mAdapter != null) postDelayed(mAllowDeferredSync, DEFERRED_SYNC_DELAY_MS);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        removeCallbacks(mAllowDeferredSync);
+        getContext().unregisterReceiver(mPowerReceiver);
+    }
+
+    private boolean readCharging() {
+        Intent battery = getContext().registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
     @Override
     public void setAdapter(Adapter adapter) {
         throw new RuntimeException("AtlasConversationsRecyclerView sets its own Adapter");
@@ -120,7 +199,9 @@ public class AtlasConversationsRecyclerView extends RecyclerView {
     }
 
     /**
-     * Convenience pass-through to this list's AtlasConversationsAdapter.
+     * Convenience pass-through to this list's AtlasConversationsAdapter.  History is synced for
+     * visible Conversations first, and for the rest once the list is idle or the device is
+     * charging.
      *
      * @see AtlasConversationsAdapter#setInitialHistoricMessagesToFetch(long)
      */
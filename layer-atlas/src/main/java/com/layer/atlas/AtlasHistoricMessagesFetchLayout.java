@@ -2,19 +2,34 @@ package com.layer.atlas;
 
 import android.content.Context;
 import android.support.v4.widget.SwipeRefreshLayout;
+import android.support.v7.widget.RecyclerView;
 import android.util.AttributeSet;
 import android.view.View;
 
+import com.layer.atlas.adapters.HistoricSyncPager;
 import com.layer.sdk.LayerClient;
-import com.layer.sdk.changes.LayerChange;
-import com.layer.sdk.changes.LayerChangeEvent;
-import com.layer.sdk.listeners.LayerChangeEventListener;
 import com.layer.sdk.messaging.Conversation;
 
-public class AtlasHistoricMessagesFetchLayout extends SwipeRefreshLayout implements LayerChangeEventListener.BackgroundThread.Weak {
+/**
+ * AtlasHistoricMessagesFetchLayout synchronizes historic Messages for a Conversation when pulled
+ * down.  By default each pull synchronizes 25 Messages, as set by setHistoricMessagesPerFetch().
+ *
+ * Optionally, setAutoFetch() also synchronizes automatically as its Messages RecyclerView child
+ * nears the top, and setAdaptiveHistoricMessagesPerFetch() sizes each fetch to Messages per screen
+ * and measured sync latency.  Both are off by default.
+ *
+ * @see HistoricSyncPager
+ */
+public class AtlasHistoricMessagesFetchLayout extends SwipeRefreshLayout implements HistoricSyncPager.Callback {
+    public static final int DEFAULT_HISTORIC_MESSAGES_PER_FETCH = 25;
+
     private LayerClient mLayerClient;
     private Conversation mConversation;
-    private int mSyncAmount = 25;
+    private HistoricSyncPager mPager;
+    private RecyclerView mRecyclerView;
+
+    // Whether the pending sync was pulled for, and so shows the refresh indicator
+    private boolean mPulled = false;
 
     public AtlasHistoricMessagesFetchLayout(Context context) {
         super(context);
@@ -26,12 +41,16 @@ public class AtlasHistoricMessagesFetchLayout extends SwipeRefreshLayout impleme
 
     public AtlasHistoricMessagesFetchLayout init(LayerClient layerClient) {
         mLayerClient = layerClient;
+        mPager = new HistoricSyncPager(layerClient)
+                .setPageSize(DEFAULT_HISTORIC_MESSAGES_PER_FETCH)
+                .setAutoFetch(false)
+                .setCallback(this);
         setOnRefreshListener(new OnRefreshListener() {
             @Override
             public void onRefresh() {
-                if (mConversation.getHistoricSyncStatus() == Conversation.HistoricSyncStatus.MORE_AVAILABLE) {
-                    mConversation.syncMoreHistoricMessages(mSyncAmount);
-                }
+                mPulled = true;
+                mPager.fetch();
+                refresh();
             }
         });
         return this;
@@ -56,23 +75,66 @@ public class AtlasHistoricMessagesFetchLayout extends SwipeRefreshLayout impleme
      */
     public AtlasHistoricMessagesFetchLayout setConversation(Conversation conversation) {
         mConversation = conversation;
-        mLayerClient.registerEventListener(this);
+        mPulled = false;
+        mPager.setConversation(conversation);
+        attachRecyclerView();
         refresh();
         return this;
     }
 
     /**
      * Sets the number of historic Messages to synchronize from the current Conversation when
-     * pulled down.
+     * pulled down.  Defaults to 25.  Replaces any adaptive range set with
+     * setAdaptiveHistoricMessagesPerFetch().
      *
      * @param syncAmount Number of historic Messages to synchronize.
      * @return This `AtlasMessagesSwipeSyncLayout`.
      */
     public AtlasHistoricMessagesFetchLayout setHistoricMessagesPerFetch(int syncAmount) {
-        mSyncAmount = syncAmount;
+        mPager.setPageSize(syncAmount);
+        return this;
+    }
+
+    /**
+     * Sizes each fetch between the given bounds, fetching more historic Messages when a screen
+     * holds many Messages or syncing is slow.  Replaces any fixed number set with
+     * setHistoricMessagesPerFetch().
+     *
+     * @param minSyncAmount Minimum number of historic Messages to synchronize per fetch.
+     * @param maxSyncAmount Maximum number of historic Messages to synchronize per fetch.
+     * @return This `AtlasMessagesSwipeSyncLayout`.
+     */
+    public AtlasHistoricMessagesFetchLayout setAdaptiveHistoricMessagesPerFetch(int minSyncAmount, int maxSyncAmount) {
+        mPager.setMinPageSize(minSyncAmount).setMaxPageSize(maxSyncAmount);
+        return this;
+    }
+
+    /**
+     * Sets whether historic Messages are fetched automatically as the Messages list nears the
+     * top, in addition to when pulled down.  Defaults to `false`.
+     *
+     * @param autoFetch Whether to fetch automatically.
+     * @return This `AtlasMessagesSwipeSyncLayout`.
+     */
+    public AtlasHistoricMessagesFetchLayout setAutoFetch(boolean autoFetch) {
+        mPager.setAutoFetch(autoFetch);
         return this;
     }
 
+    /**
+     * Adds the pager to the first RecyclerView child, to measure it and fetch near the top.
+     */
+    private void attachRecyclerView() {
+        if (mRecyclerView != null) return;
+        for (int i = 0; i < getChildCount(); i++) {
+            View child = getChildAt(i);
+            if (!(child instanceof RecyclerView)) continue;
+            mRecyclerView = (RecyclerView) child;
+            mRecyclerView.addOnScrollListener(mPager);
+            return;
+        }
+    }
+
     /**
      * Refreshes the state of this `AtlasMessagesSwipeSyncLayout`.
      *
@@ -88,20 +150,17 @@ public class AtlasHistoricMessagesFetchLayout extends SwipeRefreshLayout impleme
                     return;
                 }
                 Conversation.HistoricSyncStatus status = mConversation.getHistoricSyncStatus();
-                setEnabled(status == Conversation.HistoricSyncStatus.MORE_AVAILABLE);
-                setRefreshing(status == Conversation.HistoricSyncStatus.SYNC_PENDING);
+                boolean pending = status == Conversation.HistoricSyncStatus.SYNC_PENDING;
+                if (!pending) mPulled = false;
+                setEnabled(status == Conversation.HistoricSyncStatus.MORE_AVAILABLE || (pending && mPulled));
+                setRefreshing(pending && mPulled);
             }
         });
         return this;
     }
 
     @Override
-    public void onChangeEvent(LayerChangeEvent layerChangeEvent) {
-        for (LayerChange change : layerChangeEvent.getChanges()) {
-            if (change.getObject() != mConversation) continue;
-            if (change.getChangeType() != LayerChange.Type.UPDATE) continue;
-            if (!change.getAttributeName().equals("historicSyncStatus")) continue;
-            refresh();
-        }
+    public void onHistoricSyncStatusChanged(HistoricSyncPager pager, Conversation.HistoricSyncStatus status) {
+        refresh();
     }
 }
@@ -25,6 +25,8 @@ import android.util.AttributeSet;
 import android.view.View;
 
 import com.layer.atlas.adapters.AtlasMessagesAdapter;
+import com.layer.atlas.adapters.HistoricSyncPager;
+import com.layer.atlas.adapters.MessagePrefetcher;
 import com.layer.atlas.messagetypes.AtlasCellFactory;
 import com.layer.atlas.messagetypes.MessageStyle;
 import com.layer.atlas.provider.ParticipantProvider;
@@ -42,8 +44,12 @@ public class AtlasMessagesRecyclerView extends RecyclerView {
     private AtlasMessagesAdapter mAdapter;
     private LinearLayoutManager mLayoutManager;
     private ItemTouchHelper mSwipeItemTouchHelper;
+    private MessagePrefetcher mPrefetcher;
+    private HistoricSyncPager mHistoryPager;
+    private boolean mAutoFetchHistory = false;
 
     private MessageStyle mMessageStyle;
+    private Conversation mConversation;
 
     public AtlasMessagesRecyclerView(Context context, AttributeSet attrs, int defStyle) {
         super(context, attrs, defStyle);
@@ -102,6 +108,21 @@ public class AtlasMessagesRecyclerView extends RecyclerView {
             }
         });
 
+        // Prepare upcoming Messages before they scroll into view
+        mPrefetcher = new MessagePrefetcher(getContext(), mAdapter, mLayoutManager);
+        addOnScrollListener(mPrefetcher);
+
+        // Page in historic Messages once enabled with setAutoFetchHistory()
+        mHistoryPager = new HistoricSyncPager(layerClient);
+
+        // Keep the top visible Message in place when Messages are inserted above it
+        mAdapter.registerAdapterDataObserver(new AdapterDataObserver() {
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                holdAnchor(positionStart, itemCount);
+            }
+        });
+
         return this;
     }
 
@@ -146,9 +167,41 @@ public class AtlasMessagesRecyclerView extends RecyclerView {
         }
 
         mAdapter.setQuery(queryBuilder.build()).refresh();
+        mHistoryPager.setConversation(mAutoFetchHistory ? conversation : null);
+        mConversation = conversation;
         return this;
     }
 
+    /**
+     * Sets whether older Messages are synced automatically as the first visible position comes
+     * within `distance` positions of the top, as an alternative to pulling an
+     * AtlasHistoricMessagesFetchLayout.  Only one page is synced at a time, page sizes adapt to
+     * Messages per screen and sync latency.
+     *
+     * @param autoFetch Whether to sync older Messages automatically.
+     * @param distance  Positions from the top at which to sync, or
+     *                  HistoricSyncPager.DISTANCE_ONE_SCREEN for one screen of Messages.
+     * @return This AtlasMessagesRecyclerView.
+     * @see HistoricSyncPager
+     */
+    public AtlasMessagesRecyclerView setAutoFetchHistory(boolean autoFetch, int distance) {
+        mHistoryPager.setDistance(distance);
+        if (autoFetch == mAutoFetchHistory) return this;
+        mAutoFetchHistory = autoFetch;
+        if (autoFetch) {
+            addOnScrollListener(mHistoryPager);
+            mHistoryPager.setConversation(mConversation);
+        } else {
+            removeOnScrollListener(mHistoryPager);
+            mHistoryPager.setConversation(null);
+        }
+        return this;
+    }
+
+    public AtlasMessagesRecyclerView setAutoFetchHistory(boolean autoFetch) {
+        return setAutoFetchHistory(autoFetch, HistoricSyncPager.DISTANCE_ONE_SCREEN);
+    }
+
     public AtlasMessagesRecyclerView setOnMessageSwipeListener(SwipeableItem.OnSwipeListener<Message> listener) {
         if (mSwipeItemTouchHelper != null) {
             mSwipeItemTouchHelper.attachToRecyclerView(null);
@@ -173,6 +226,26 @@ public class AtlasMessagesRecyclerView extends RecyclerView {
         return this;
     }
 
+    /**
+     * Convenience pass-through to this list's MessagePrefetcher.
+     *
+     * @see MessagePrefetcher#setDistance(int)
+     */
+    public AtlasMessagesRecyclerView setPrefetchDistance(int distance) {
+        mPrefetcher.setDistance(distance);
+        return this;
+    }
+
+    /**
+     * Convenience pass-through to this list's MessagePrefetcher.
+     *
+     * @see MessagePrefetcher#setBudgetBytes(int)
+     */
+    public AtlasMessagesRecyclerView setPrefetchBudget(int budgetBytes) {
+        mPrefetcher.setBudgetBytes(budgetBytes);
+        return this;
+    }
+
     public AtlasMessagesRecyclerView setTextTypeface(Typeface myTypeface, Typeface otherTypeface) {
         mMessageStyle.setMyTextTypeface(myTypeface);
         mMessageStyle.setOtherTextTypeface(otherTypeface);
@@ -219,6 +292,21 @@ public class AtlasMessagesRecyclerView extends RecyclerView {
         if (visible >= (end - 3)) scrollToPosition(end);
     }
 
+    /**
+     * Keeps the top visible Message at its offset when `itemCount` items are inserted at or above
+     * it, such as a prepended page of history.  Called before the insert is laid out, so children
+     * still have their old positions and the next layout pass lands on the anchor directly,
+     * without a corrective scroll.  Inserts below the top visible Message do not move it.
+     */
+    private void holdAnchor(int positionStart, int itemCount) {
+        if (getChildCount() == 0 || itemCount == mAdapter.getItemCount()) return;
+        View top = getChildAt(0);
+        int position = getChildLayoutPosition(top);
+        if (position == NO_POSITION || positionStart > position) return;
+        int offset = mLayoutManager.getDecoratedTop(top) - getPaddingTop();
+        mLayoutManager.scrollToPositionWithOffset(position + itemCount, offset);
+    }
+
     public void parseStyle(Context context, AttributeSet attrs, int defStyle) {
         TypedArray ta = context.getTheme().obtainStyledAttributes(attrs, R.styleable.AtlasMessagesRecyclerView, R.attr.AtlasMessagesRecyclerView, defStyle);
         MessageStyle.Builder messageStyleBuilder = new MessageStyle.Builder();
@@ -2,8 +2,11 @@ package com.layer.atlas.adapters;
 
 import android.content.Context;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.DrawableRes;
 import android.support.v7.widget.RecyclerView;
+import android.util.LruCache;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -26,17 +29,55 @@ import com.layer.sdk.query.SortDescriptor;
 import com.squareup.picasso.Picasso;
 
 import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
-
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * AtlasConversationsAdapter displays Conversations from a RecyclerViewController query.  Each
+ * row's title, last Message preview, time label, unread state, and avatar participants are
+ * computed into a Row on a background thread and cached per Conversation, so binding only assigns
+ * views.  Options are still only called on the UI thread, once per Row; only the default title
+ * is computed in the background, when getConversationTitle() is not overridden.  Rows for positions just ahead of the scroll direction are computed before they are
+ * bound, and a Row still missing when bound is computed on the spot, so rows never show empty.
+ * Query change callbacks recompute the changed Rows, and rows keep showing their previous Row
+ * until the new one is ready.
+ */
 public class AtlasConversationsAdapter extends RecyclerView.Adapter<AtlasConversationsAdapter.ViewHolder> implements AtlasBaseAdapter<Conversation>, RecyclerViewController.Callback {
     protected final LayerClient mLayerClient;
     protected final ParticipantProvider mParticipantProvider;
     protected final Picasso mPicasso;
     private final RecyclerViewController<Conversation> mQueryController;
     private final LayoutInflater mInflater;
-    private long mInitialHistory = 0;
+    private final HistorySyncScheduler mHistorySync;
+
+    // Computes Rows for all adapters
+    private static final Executor ROW_EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, AtlasConversationsAdapter.class.getSimpleName());
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    // Computed Rows by Conversation ID, and Conversations with a Row computing; UI thread only
+    private static final int ROW_CACHE_SIZE = 256;
+    private static final int ROW_PREFETCH_DISTANCE = 10;
+    private final LruCache<Uri, Row> mRows = new LruCache<Uri, Row>(ROW_CACHE_SIZE);
+    private final Set<Uri> mPendingRows = new HashSet<Uri>();
+    private final Context mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private int mLastBoundPosition = 0;
+    private long mTodayStart;
+    private long mTomorrowStart;
 
     private OnConversationClickListener mConversationClickListener;
     private ViewHolder.OnClickListener mViewHolderClickListener;
@@ -47,6 +88,9 @@ public class AtlasConversationsAdapter extends RecyclerView.Adapter<AtlasConvers
 
     private Options mOptions;
 
+    // Whether Options overrides getConversationTitle(), which must then be called on the UI thread
+    private final boolean mCustomTitle;
+
     public AtlasConversationsAdapter(Context context, LayerClient client, ParticipantProvider participantProvider, Picasso picasso, Options options) {
         this(context, client, participantProvider, picasso, null, options);
     }
@@ -68,12 +112,15 @@ public class AtlasConversationsAdapter extends RecyclerView.Adapter<AtlasConvers
         Query<Conversation> query = queryBuilder.build();
         mQueryController = client.newRecyclerViewController(query, updateAttributes, this);
         mLayerClient = client;
+        mHistorySync = new HistorySyncScheduler(client, this);
         mParticipantProvider = participantProvider;
         mPicasso = picasso;
         mInflater = LayoutInflater.from(context);
+        mContext = context.getApplicationContext();
         mDateFormat = android.text.format.DateFormat.getDateFormat(context);
         mTimeFormat = android.text.format.DateFormat.getTimeFormat(context);
         mOptions = options;
+        mCustomTitle = overridesConversationTitle(options);
         mViewHolderClickListener = new ViewHolder.OnClickListener() {
             @Override
             public void onClick(ViewHolder viewHolder) {
@@ -99,41 +146,188 @@ public class AtlasConversationsAdapter extends RecyclerView.Adapter<AtlasConvers
 
 
     //==============================================================================================
-    // Initial message history
+    // Rows
     //==============================================================================================
 
-    public AtlasConversationsAdapter setInitialHistoricMessagesToFetch(long initialHistory) {
-        mInitialHistory = initialHistory;
-        return this;
+    /**
+     * Returns the cached Row for the given Conversation, computing it on the calling thread if
+     * none is cached yet.  Stale Rows are returned as they are and recomputed in the background,
+     * and their positions notified once ready.
+     */
+    private Row getRow(Conversation conversation) {
+        Row row = mRows.get(conversation.getId());
+        long todayStart = getTodayStart();
+        if (row == null) {
+            row = computeRow(conversation, todayStart);
+            applyOptions(conversation, row);
+            mRows.put(conversation.getId(), row);
+        } else if (row.mStale || row.mDayStart != todayStart) {
+            if (mPendingRows.add(conversation.getId())) computeRows(Collections.singletonList(conversation));
+        }
+        return row;
     }
 
-    public void setStyle(ConversationStyle conversationStyle) {
-        this.conversationStyle = conversationStyle;
+    /**
+     * Computes missing Rows for the positions following the given bound position in the
+     * direction of scrolling, so they are ready before they are bound.
+     */
+    private void prefetchRows(int position) {
+        int step = (position >= mLastBoundPosition) ? 1 : -1;
+        mLastBoundPosition = position;
+        int count = getItemCount();
+        List<Conversation> conversations = null;
+        for (int i = 1; i <= ROW_PREFETCH_DISTANCE; i++) {
+            int prefetchPosition = position + step * i;
+            if (prefetchPosition < 0 || prefetchPosition >= count) break;
+            Conversation conversation = mQueryController.getItem(prefetchPosition);
+            if (conversation == null || mRows.get(conversation.getId()) != null) continue;
+            if (!mPendingRows.add(conversation.getId())) continue;
+            if (conversations == null) conversations = new ArrayList<Conversation>(ROW_PREFETCH_DISTANCE);
+            conversations.add(conversation);
+        }
+        if (conversations != null) computeRows(conversations);
+    }
+
+    /**
+     * Marks Rows in the given position range stale and recomputes them in the background,
+     * notifying each position once its new Row is ready.
+     */
+    private void invalidateRows(int positionStart, int itemCount) {
+        List<Conversation> conversations = new ArrayList<Conversation>(itemCount);
+        for (int i = positionStart; i < positionStart + itemCount; i++) {
+            Conversation conversation = mQueryController.getItem(i);
+            if (conversation == null) continue;
+            Row row = mRows.get(conversation.getId());
+            if (row != null) row.mStale = true;
+            // Recompute even if pending, since a computation already running may predate the change
+            mPendingRows.add(conversation.getId());
+            conversations.add(conversation);
+        }
+        if (!conversations.isEmpty()) computeRows(conversations);
     }
 
-    private void syncInitialMessages(final int start, final int length) {
-        new Thread(new Runnable() {
+    private void invalidateAllRows() {
+        for (Row row : mRows.snapshot().values()) {
+            row.mStale = true;
+        }
+    }
+
+    private void computeRows(final List<Conversation> conversations) {
+        ROW_EXECUTOR.execute(new Runnable() {
             @Override
             public void run() {
-                long desiredHistory = mInitialHistory;
-                if (desiredHistory <= 0) return;
-                for (int i = start; i < start + length; i++) {
-                    try {
-                        final Conversation conversation = getItem(i);
-                        if (conversation == null || conversation.getHistoricSyncStatus() != Conversation.HistoricSyncStatus.MORE_AVAILABLE) {
-                            continue;
+                for (final Conversation conversation : conversations) {
+                    final Row row = computeRow(conversation, startOfDay(System.currentTimeMillis()));
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            mPendingRows.remove(conversation.getId());
+                            applyOptions(conversation, row);
+                            mRows.put(conversation.getId(), row);
+                            Integer position = mQueryController.getPosition(conversation);
+                            if (position != null && position >= 0) notifyItemChanged(position);
                         }
-                        Query<Message> localCountQuery = Query.builder(Message.class)
-                                .predicate(new Predicate(Message.Property.CONVERSATION, Predicate.Operator.EQUAL_TO, conversation))
-                                .build();
-                        long delta = desiredHistory - mLayerClient.executeQueryForCount(localCountQuery);
-                        if (delta > 0) conversation.syncMoreHistoricMessages((int) delta);
-                    } catch (IndexOutOfBoundsException e) {
-                        // Concurrent modification
-                    }
+                    });
                 }
             }
-        }).start();
+        });
+    }
+
+    /**
+     * Computes the library-owned parts of a Row.  Safe to call from any thread; applyOptions()
+     * fills in the rest on the UI thread.
+     */
+    private Row computeRow(Conversation conversation, long dayStart) {
+        Row row = new Row();
+        row.mDayStart = dayStart;
+        row.mUnread = conversation.getTotalUnreadMessageCount() > 0;
+        Set<String> participantIds = new HashSet<String>(conversation.getParticipants());
+        participantIds.remove(mLayerClient.getAuthenticatedUserId());
+        row.mParticipantIds = Collections.unmodifiableSet(participantIds);
+        if (!mCustomTitle) {
+            row.mTitle = Util.getConversationTitle(mLayerClient, mParticipantProvider, conversation);
+        }
+
+        Message lastMessage = conversation.getLastMessage();
+        if (lastMessage != null) {
+            row.mPreview = Util.getLastMessageString(mContext, lastMessage);
+            if (lastMessage.getReceivedAt() != null) {
+                // DateFormats are shared by all Rows computed for this adapter
+                synchronized (mDateFormat) {
+                    row.mTime = Util.formatTime(mContext, lastMessage.getReceivedAt(), mTimeFormat, mDateFormat);
+                }
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Fills in the parts of a Row provided by Options.  UI thread only.
+     */
+    private void applyOptions(Conversation conversation, Row row) {
+        row.mIconUri = mOptions.getConversationIconUri(conversation);
+        if (mCustomTitle) {
+            row.mTitle = mOptions.getConversationTitle(mLayerClient, mParticipantProvider, conversation);
+        }
+    }
+
+    private static boolean overridesConversationTitle(Options options) {
+        try {
+            return options.getClass().getMethod("getConversationTitle", LayerClient.class, ParticipantProvider.class, Conversation.class)
+                    .getDeclaringClass() != Options.class;
+        } catch (NoSuchMethodException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Returns the start of today, recomputed only once the day changes.  UI thread only.
+     */
+    private long getTodayStart() {
+        long now = System.currentTimeMillis();
+        if (now < mTodayStart || now >= mTomorrowStart) {
+            mTodayStart = startOfDay(now);
+            Calendar cal = Calendar.getInstance();
+            cal.setTimeInMillis(mTodayStart);
+            cal.add(Calendar.DAY_OF_MONTH, 1);
+            mTomorrowStart = cal.getTimeInMillis();
+        }
+        return mTodayStart;
+    }
+
+    private static long startOfDay(long time) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(time);
+        cal.set(Calendar.HOUR_OF_DAY, 0);
+        cal.set(Calendar.MINUTE, 0);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        return cal.getTimeInMillis();
+    }
+
+
+    //==============================================================================================
+    // Initial message history
+    //==============================================================================================
+
+    public AtlasConversationsAdapter setInitialHistoricMessagesToFetch(long initialHistory) {
+        mHistorySync.setDesiredHistory(initialHistory);
+        return this;
+    }
+
+    /**
+     * Returns the scheduler syncing initial message history, to drive it from the viewport.
+     */
+    public HistorySyncScheduler getHistorySyncScheduler() {
+        return mHistorySync;
+    }
+
+    public void setStyle(ConversationStyle conversationStyle) {
+        this.conversationStyle = conversationStyle;
+    }
+
+    private void syncInitialMessages(int start, int length) {
+        mHistorySync.schedule(start, length);
     }
 
 
@@ -165,35 +359,22 @@ public class AtlasConversationsAdapter extends RecyclerView.Adapter<AtlasConvers
     public void onBindViewHolder(ViewHolder viewHolder, int position) {
         mQueryController.updateBoundPosition(position);
         Conversation conversation = mQueryController.getItem(position);
-        Message lastMessage = conversation.getLastMessage();
-        Context context = viewHolder.itemView.getContext();
+        Row row = getRow(conversation);
+        prefetchRows(position);
+        mHistorySync.prioritize(conversation);
 
         viewHolder.setConversation(conversation);
-        HashSet<String> participantIds = new HashSet<String>(conversation.getParticipants());
-        participantIds.remove(mLayerClient.getAuthenticatedUserId());
-
-        Uri conversationIcon = mOptions.getConversationIconUri(conversation);
-        if (conversationIcon == null) {
-            viewHolder.setParticipantAvatars(participantIds);
+        if (row.mIconUri == null) {
+            viewHolder.setParticipantAvatars(row.mParticipantIds);
         } else {
-            viewHolder.setConversationIcon(mPicasso, conversationIcon,
+            viewHolder.setConversationIcon(mPicasso, row.mIconUri,
                                            mOptions.getConversationIconErrorResource());
         }
 
-        viewHolder.mTitleView.setText(mOptions.getConversationTitle(mLayerClient, mParticipantProvider, conversation));
-        viewHolder.applyStyle(conversation.getTotalUnreadMessageCount() > 0);
-
-        if (lastMessage == null) {
-            viewHolder.mMessageView.setText(null);
-            viewHolder.mTimeView.setText(null);
-        } else {
-            viewHolder.mMessageView.setText(Util.getLastMessageString(context, lastMessage));
-            if (lastMessage.getReceivedAt() == null) {
-                viewHolder.mTimeView.setText(null);
-            } else {
-                viewHolder.mTimeView.setText(Util.formatTime(context, lastMessage.getReceivedAt(), mTimeFormat, mDateFormat));
-            }
-        }
+        viewHolder.mTitleView.setText(row.mTitle);
+        viewHolder.applyStyle(row.mUnread);
+        viewHolder.mMessageView.setText(row.mPreview);
+        viewHolder.mTimeView.setText(row.mTime);
     }
 
     @Override
@@ -229,17 +410,19 @@ public class AtlasConversationsAdapter extends RecyclerView.Adapter<AtlasConvers
     @Override
     public void onQueryDataSetChanged(RecyclerViewController controller) {
         syncInitialMessages(0, getItemCount());
+        invalidateAllRows();
         notifyDataSetChanged();
     }
 
     @Override
     public void onQueryItemChanged(RecyclerViewController controller, int position) {
-        notifyItemChanged(position);
+        // Rebinds once the new Row is computed
+        invalidateRows(position, 1);
     }
 
     @Override
     public void onQueryItemRangeChanged(RecyclerViewController controller, int positionStart, int itemCount) {
-        notifyItemRangeChanged(positionStart, itemCount);
+        invalidateRows(positionStart, itemCount);
     }
 
     @Override
@@ -366,6 +549,23 @@ public class AtlasConversationsAdapter extends RecyclerView.Adapter<AtlasConvers
         }
     }
 
+    /**
+     * Row holds everything displayed for a Conversation, computed off the UI thread except for the
+     * parts provided by Options.
+     */
+    private static class Row {
+        String mTitle;
+        String mPreview;
+        String mTime;
+        boolean mUnread;
+        Uri mIconUri;
+        Set<String> mParticipantIds;
+
+        // Start of the day mTime was formatted relative to, and whether the Conversation changed
+        long mDayStart;
+        boolean mStale;
+    }
+
     /**
      * Listens for item clicks on an IntegrationConversationsAdapter.
      */
@@ -388,6 +588,11 @@ public class AtlasConversationsAdapter extends RecyclerView.Adapter<AtlasConvers
         boolean onConversationLongClick(AtlasConversationsAdapter adapter, Conversation conversation);
     }
 
+    /**
+     * Options customize the Conversations shown and how each is displayed.  All methods are called
+     * on the UI thread.  getConversationTitle() and getConversationIconUri() are called once each
+     * time a Conversation's row is computed, rather than on every bind.
+     */
     public static class Options {
         private Predicate[] predicates;
 
@@ -399,6 +604,9 @@ public class AtlasConversationsAdapter extends RecyclerView.Adapter<AtlasConvers
             return predicates;
         }
 
+        /**
+         * Returns the title to display for the given Conversation.  Called on the UI thread.
+         */
         public String getConversationTitle(LayerClient layerClient,
                                            ParticipantProvider participantProvider,
                                            Conversation conversation) {
@@ -406,7 +614,8 @@ public class AtlasConversationsAdapter extends RecyclerView.Adapter<AtlasConvers
         }
 
         /**
-         * Provide an icon to be used in place of the default user avatars
+         * Provide an icon to be used in place of the default user avatars.  Called on the UI
+         * thread.
          * @return an icon Uri to load instead of user avatars, null for the default behavior
          */
         public Uri getConversationIconUri(Conversation conversation) {
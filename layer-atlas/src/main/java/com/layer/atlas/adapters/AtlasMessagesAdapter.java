@@ -7,6 +7,7 @@ import android.os.Looper;
 import android.support.annotation.LayoutRes;
 import android.support.v7.widget.RecyclerView;
 import android.util.DisplayMetrics;
+import android.util.LruCache;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -17,12 +18,14 @@ import com.layer.atlas.adapters.viewholders.CellViewHolder;
 import com.layer.atlas.adapters.viewholders.ViewHolder;
 import com.layer.atlas.messagetypes.AtlasCellFactory;
 import com.layer.atlas.messagetypes.MessageStyle;
+import com.layer.atlas.messagetypes.MimeTypeDispatcher;
 import com.layer.atlas.provider.Participant;
 import com.layer.atlas.provider.ParticipantProvider;
 import com.layer.atlas.util.Util;
 import com.layer.sdk.LayerClient;
 import com.layer.sdk.messaging.Actor;
 import com.layer.sdk.messaging.Message;
+import com.layer.sdk.messaging.MessagePart;
 import com.layer.sdk.query.ListViewController;
 import com.layer.sdk.query.Query;
 import com.layer.sdk.query.RecyclerViewController;
@@ -31,10 +34,11 @@ import com.squareup.picasso.Picasso;
 import java.text.DateFormat;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * AtlasMessagesAdapter drives an AtlasMessagesList.  The AtlasMessagesAdapter itself handles
@@ -53,7 +57,8 @@ import java.util.Set;
  *
  * When rendering Messages, the AtlasMessagesAdapter first determines which CellFactory to handle
  * the Message with calling CellFactory.isBindable() on each of its registered CellFactories. The
- * first CellFactory to return `true` is used for that Message.  Then, the adapter checks for
+ * first CellFactory to return `true` is used for that Message.  CellFactories that declare their
+ * MIME-type signatures are matched through a dispatch table instead.  Then, the adapter checks for
  * available CellHolders of that type.  If none are found, a new one is created with a call to
  * CellFactory.createCellHolder().  After creating a new CellHolder (or reusing an available one),
  * the CellHolder is rendered in the UI with Message data via CellFactory.bindCellHolder().
@@ -78,12 +83,33 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<ViewHolder> imple
     protected final Map<Integer, CellType> mCellTypesByViewType = new HashMap<Integer, CellType>();
     protected final Map<AtlasCellFactory, Integer> mMyViewTypesByCell = new HashMap<AtlasCellFactory, Integer>();
     protected final Map<AtlasCellFactory, Integer> mTheirViewTypesByCell = new HashMap<AtlasCellFactory, Integer>();
+    private CellType[] mCellTypes = new CellType[1];
+
+    // MIME-type dispatch over mCellFactories, in registration order
+    private MimeTypeDispatcher mDispatcher = new MimeTypeDispatcher();
+    private AtlasCellFactory[] mFactoryOrder = new AtlasCellFactory[0];
+    private boolean[] mFactoryDeclared = new boolean[0];
+
+    // Resolved view types by adapter position, and view types resolved by the PreProcessCallback
+    // by Message ID until the index takes them
+    private final MessageViewTypeIndex mViewTypeIndex = new MessageViewTypeIndex();
+    private final Map<Uri, Integer> mCachedViewTypes = new ConcurrentHashMap<Uri, Integer>();
 
     // Dates and Clustering
-    private final Map<Uri, Cluster> mClusterCache = new HashMap<Uri, Cluster>();
+    private final MessageClusterIndex mClusterIndex = new MessageClusterIndex(this);
+    private final Cluster mCluster = new Cluster();
 
     // Read and delivery receipts
-    private Map<Message.RecipientStatus, MessagePosition> mReceiptMap = new HashMap<Message.RecipientStatus, MessagePosition>();
+    private final MessageReceiptTracker mReceiptTracker;
+
+    // Sent and content-ready state of bound Messages, used to choose change payloads
+    private static final int STATE_SENT = 1;
+    private final Map<Uri, Integer> mBoundStates = new HashMap<Uri, Integer>();
+
+    // Ready MessagePart counts of Messages when their content was parsed, from any thread, so
+    // content parsed before a download finished is dropped even if the Message is not bound
+    private static final int PARSED_STATE_CACHE_SIZE = 512;
+    private final LruCache<Uri, Integer> mParsedReadyParts = new LruCache<Uri, Integer>(PARSED_STATE_CACHE_SIZE);
 
     private View mFooterView;
     private int mFooterPosition = 0;
@@ -108,17 +134,17 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<ViewHolder> imple
         mUiThreadHandler = new Handler(Looper.getMainLooper());
         mOptions = options;
         mDisplayMetrics = context.getResources().getDisplayMetrics();
+        mReceiptTracker = new MessageReceiptTracker(this, layerClient);
 
         mQueryController = layerClient.newRecyclerViewController(null, null, this);
         mQueryController.setPreProcessCallback(new ListViewController.PreProcessCallback<Message>() {
             @Override
             public void onCache(ListViewController listViewController, Message message) {
-                for (AtlasCellFactory factory : mCellFactories) {
-                    if (factory.isBindable(message)) {
-                        factory.getParsedContent(mLayerClient, mParticipantProvider, message);
-                        break;
-                    }
-                }
+                int viewType = getViewType(message);
+                mCachedViewTypes.put(message.getId(), viewType);
+                CellType cellType = getCellType(viewType);
+                if (cellType == null) return;
+                getParsedContent(cellType, message);
             }
         });
 
@@ -132,6 +158,7 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<ViewHolder> imple
      * @return This AtlasMessagesAdapter.
      */
     public AtlasMessagesAdapter setQuery(Query<Message> query) {
+        mCachedViewTypes.clear();
         mQueryController.setQuery(query);
         return this;
     }
@@ -218,6 +245,32 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<ViewHolder> imple
             mCellTypesByViewType.put(mViewTypeCount, notMe);
             mTheirViewTypesByCell.put(CellFactory, mViewTypeCount);
         }
+
+        CellType[] cellTypes = new CellType[mViewTypeCount + 1];
+        for (Map.Entry<Integer, CellType> entry : mCellTypesByViewType.entrySet()) {
+            cellTypes[entry.getKey()] = entry.getValue();
+        }
+        mCellTypes = cellTypes;
+
+        // Index declared MIME-type signatures by registration order
+        MimeTypeDispatcher dispatcher = new MimeTypeDispatcher();
+        AtlasCellFactory[] factoryOrder = mCellFactories.toArray(new AtlasCellFactory[mCellFactories.size()]);
+        boolean[] factoryDeclared = new boolean[factoryOrder.length];
+        for (int i = 0; i < factoryOrder.length; i++) {
+            String[][] signatures = factoryOrder[i].getMimeTypeSignatures();
+            if (signatures == null) continue;
+            factoryDeclared[i] = true;
+            for (String[] signature : signatures) {
+                dispatcher.add(signature, i);
+            }
+        }
+        mFactoryOrder = factoryOrder;
+        mFactoryDeclared = factoryDeclared;
+        mDispatcher = dispatcher;
+
+        // Earlier resolutions may now belong to a newly-registered factory
+        mViewTypeIndex.clear();
+        mCachedViewTypes.clear();
         return this;
     }
 
@@ -228,13 +281,50 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<ViewHolder> imple
     @Override
     public int getItemViewType(int position) {
         if (mFooterView != null && position == mFooterPosition) return VIEW_TYPE_FOOTER;
-        Message message = getItem(position);
+        int viewType = mViewTypeIndex.get(position);
+        if (viewType == MessageViewTypeIndex.UNKNOWN) {
+            Message message = getItem(position);
+            Integer cached = mCachedViewTypes.remove(message.getId());
+            viewType = (cached != null) ? cached : getViewType(message);
+            mViewTypeIndex.put(position, viewType);
+        }
+        return viewType;
+    }
+
+    /**
+     * Resolves the view type for the given Message from its CellFactory and sender.  Safe to call
+     * from the PreProcessCallback's background thread.
+     */
+    private int getViewType(Message message) {
         boolean isMe = mLayerClient.getAuthenticatedUserId().equals(message.getSender().getUserId());
-        for (AtlasCellFactory factory : mCellFactories) {
-            if (!factory.isBindable(message)) continue;
-            return isMe ? mMyViewTypesByCell.get(factory) : mTheirViewTypesByCell.get(factory);
+        AtlasCellFactory factory = findCellFactory(message);
+        if (factory == null) return -1;
+        return isMe ? mMyViewTypesByCell.get(factory) : mTheirViewTypesByCell.get(factory);
+    }
+
+    /**
+     * Returns the first registered CellFactory that binds the given Message.  Factories declaring
+     * MIME-type signatures are found through the dispatch table; isBindable() is only called on
+     * undeclared factories registered ahead of the dispatched one.
+     */
+    private AtlasCellFactory findCellFactory(Message message) {
+        AtlasCellFactory[] factoryOrder = mFactoryOrder;
+        boolean[] factoryDeclared = mFactoryDeclared;
+        int dispatched = mDispatcher.find(message);
+        int end = (dispatched < 0) ? factoryOrder.length : dispatched;
+        for (int i = 0; i < end; i++) {
+            if (factoryDeclared[i]) continue;
+            if (factoryOrder[i].isBindable(message)) return factoryOrder[i];
+        }
+        return (dispatched < 0) ? null : factoryOrder[dispatched];
+    }
+
+    private CellType getCellType(int viewType) {
+        CellType[] cellTypes = mCellTypes;
+        if (viewType > 0 && viewType < cellTypes.length && cellTypes[viewType] != null) {
+            return cellTypes[viewType];
         }
-        return -1;
+        return mCellTypesByViewType.get(viewType);
     }
 
     @Override
@@ -243,7 +333,7 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<ViewHolder> imple
             return new ViewHolder(mLayoutInflater.inflate(ViewHolder.RESOURCE_ID_FOOTER, parent, false));
         }
 
-        CellType cellType = mCellTypesByViewType.get(viewType);
+        CellType cellType = getCellType(viewType);
         int rootResId = cellType.mMe ? mOptions.getLayoutResourceMe() : mOptions.getLayoutResourceThem();
         CellViewHolder rootViewHolder = mOptions.getViewHolder(mLayoutInflater.inflate(rootResId, parent, false), mParticipantProvider, mPicasso);
         rootViewHolder.setCellHolder(cellType.mCellFactory.createCellHolder(rootViewHolder.getCell(), cellType.mMe, mLayoutInflater));
@@ -263,6 +353,27 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<ViewHolder> imple
         }
     }
 
+    @Override
+    public void onBindViewHolder(ViewHolder viewHolder, int position, List<Object> payloads) {
+        if (payloads.isEmpty() || !(viewHolder instanceof CellViewHolder) || (mFooterView != null && position == mFooterPosition)) {
+            onBindViewHolder(viewHolder, position);
+            return;
+        }
+        mQueryController.updateBoundPosition(position);
+        bindCellViewHolder((CellViewHolder) viewHolder, position, payloads);
+    }
+
+    @Override
+    public void onViewRecycled(ViewHolder viewHolder) {
+        if (viewHolder instanceof CellViewHolder) {
+            CellViewHolder cellViewHolder = (CellViewHolder) viewHolder;
+            Message message = cellViewHolder.getMessage();
+            if (message != null) mBoundStates.remove(message.getId());
+            CellType cellType = getCellType(cellViewHolder.getItemViewType());
+            if (cellType != null) cellType.mCellFactory.onCellHolderRecycled(cellViewHolder.getCellHolder());
+        }
+    }
+
     public void bindFooter(ViewHolder viewHolder) {
         viewHolder.getRoot().removeAllViews();
         if (mFooterView.getParent() != null) {
@@ -274,11 +385,65 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<ViewHolder> imple
     public void bindCellViewHolder(CellViewHolder viewHolder, int position) {
         Message message = getItem(position);
         viewHolder.setMessage(message);
-        CellType cellType = mCellTypesByViewType.get(viewHolder.getItemViewType());
+        CellType cellType = getCellType(viewHolder.getItemViewType());
+        boolean oneOnOne = message.getConversation().getParticipants().size() == 2;
+        Cluster cluster = getClustering(position);
+
+        bindClustering(viewHolder, message, cluster);
+        bindReceipt(viewHolder, position, cluster);
+        bindSentState(viewHolder, message, cellType);
+        if (!cellType.mMe) message.markAsRead();
+        bindSender(viewHolder, message, cellType, cluster, oneOnOne);
+        bindAvatar(viewHolder, message, cellType, cluster, oneOnOne);
+        bindCellContent(viewHolder, message, cellType, position, oneOnOne);
+        mBoundStates.put(message.getId(), getBoundState(message));
+    }
+
+    /**
+     * Rebinds only the parts of a cell affected by the given Payloads, falling back to a full bind
+     * for unknown payloads.
+     *
+     * @param viewHolder CellViewHolder to rebind.
+     * @param position   Position of the Message to rebind.
+     * @param payloads   Payloads passed to notifyItemChanged().
+     * @see Payload
+     */
+    public void bindCellViewHolder(CellViewHolder viewHolder, int position, List<Object> payloads) {
+        int changes = 0;
+        for (Object payload : payloads) {
+            if (!(payload instanceof Payload)) {
+                bindCellViewHolder(viewHolder, position);
+                return;
+            }
+            changes |= 1 << ((Payload) payload).ordinal();
+        }
+
+        Message message = getItem(position);
+        viewHolder.setMessage(message);
+        CellType cellType = getCellType(viewHolder.getItemViewType());
         boolean oneOnOne = message.getConversation().getParticipants().size() == 2;
+        Cluster cluster = getClustering(position);
 
-        // Clustering and dates
-        Cluster cluster = getClustering(message, position);
+        if (Payload.CLUSTER.isIn(changes)) {
+            // Cluster boundaries determine receipts, sender names, times, and avatars
+            bindClustering(viewHolder, message, cluster);
+            bindReceipt(viewHolder, position, cluster);
+            bindSender(viewHolder, message, cellType, cluster, oneOnOne);
+            bindAvatar(viewHolder, message, cellType, cluster, oneOnOne);
+        } else if (Payload.RECEIPT.isIn(changes)) {
+            bindReceipt(viewHolder, position, cluster);
+        }
+        if (Payload.SENT_STATE.isIn(changes)) {
+            bindSentState(viewHolder, message, cellType);
+            bindSender(viewHolder, message, cellType, cluster, oneOnOne);
+        }
+        if (Payload.CONTENT.isIn(changes)) {
+            bindCellContent(viewHolder, message, cellType, position, oneOnOne);
+        }
+        mBoundStates.put(message.getId(), getBoundState(message));
+    }
+
+    private void bindClustering(CellViewHolder viewHolder, Message message, Cluster cluster) {
         if (cluster.mClusterWithPrevious == null) {
             // No previous message, so no gap
             viewHolder.getClusterSpaceGap().setVisibility(View.GONE);
@@ -302,60 +467,70 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<ViewHolder> imple
             viewHolder.getClusterSpaceGap().setVisibility(View.VISIBLE);
             viewHolder.getTimeGroup().setVisibility(View.GONE);
         }
+    }
 
+    private void bindReceipt(CellViewHolder viewHolder, int position, Cluster cluster) {
         // Read and delivery receipts
         if (isLastMessage(cluster)) {
-            setReceipt(viewHolder, message);
+            setReceipt(viewHolder, position);
         } else {
             viewHolder.getReceipt().setVisibility(View.GONE);
         }
+    }
 
-        // Sender-dependent elements
-        if (cellType.mMe) {
-            // Unsent and sent
-            if (!message.isSent()) {
-                viewHolder.getCell().setAlpha(0.5f);
-            } else {
-                viewHolder.getCell().setAlpha(1.0f);
-            }
+    private void bindSentState(CellViewHolder viewHolder, Message message, CellType cellType) {
+        if (!cellType.mMe) return;
+        // Unsent and sent
+        if (!message.isSent()) {
+            viewHolder.getCell().setAlpha(0.5f);
+        } else {
+            viewHolder.getCell().setAlpha(1.0f);
+        }
+    }
 
+    private void bindSender(CellViewHolder viewHolder, Message message, CellType cellType, Cluster cluster, boolean oneOnOne) {
+        if (cellType.mMe) {
             if (isFirstMessage(cluster)) {
                 setSentAtTime(viewHolder, message);
             } else {
                 viewHolder.getSentAt().setVisibility(View.GONE);
             }
-        } else {
-            message.markAsRead();
-            // Sender name, only for first message in cluster
-            if (!oneOnOne && isFirstMessage(cluster)) {
-                Actor sender = message.getSender();
-                if (sender.getName() != null) {
-                    viewHolder.getUserName().setText(sender.getName());
-                } else {
-                    Participant participant = mParticipantProvider.getParticipant(sender.getUserId());
-                    viewHolder.getUserName().setText(participant != null ? participant.getName() : viewHolder.itemView.getResources().getString(R.string.atlas_message_item_unknown_user));
-                }
-                viewHolder.getUserName().setVisibility(View.VISIBLE);
-                setSentAtTime(viewHolder, message);
-            } else {
-                viewHolder.getUserName().setVisibility(View.GONE);
-                viewHolder.getSentAt().setVisibility(View.GONE);
-            }
+            return;
+        }
 
-            // Avatars
-            if (oneOnOne && !mOptions.showOneOnOneAvatars()) {
-                // Not in one-on-one conversations
-                viewHolder.getAvatar().setVisibility(View.GONE);
-            } else if (isLastMessage(cluster)) {
-                // Last message in cluster
-                viewHolder.getAvatar().setVisibility(View.VISIBLE);
-                viewHolder.getAvatar().setParticipants(message.getSender().getUserId());
+        // Sender name, only for first message in cluster
+        if (!oneOnOne && isFirstMessage(cluster)) {
+            Actor sender = message.getSender();
+            if (sender.getName() != null) {
+                viewHolder.getUserName().setText(sender.getName());
             } else {
-                // Invisible for clustered messages to preserve proper spacing
-                viewHolder.getAvatar().setVisibility(View.INVISIBLE);
+                Participant participant = mParticipantProvider.getParticipant(sender.getUserId());
+                viewHolder.getUserName().setText(participant != null ? participant.getName() : viewHolder.itemView.getResources().getString(R.string.atlas_message_item_unknown_user));
             }
+            viewHolder.getUserName().setVisibility(View.VISIBLE);
+            setSentAtTime(viewHolder, message);
+        } else {
+            viewHolder.getUserName().setVisibility(View.GONE);
+            viewHolder.getSentAt().setVisibility(View.GONE);
         }
+    }
 
+    private void bindAvatar(CellViewHolder viewHolder, Message message, CellType cellType, Cluster cluster, boolean oneOnOne) {
+        if (cellType.mMe) return;
+        if (oneOnOne && !mOptions.showOneOnOneAvatars()) {
+            // Not in one-on-one conversations
+            viewHolder.getAvatar().setVisibility(View.GONE);
+        } else if (isLastMessage(cluster)) {
+            // Last message in cluster
+            viewHolder.getAvatar().setVisibility(View.VISIBLE);
+            viewHolder.getAvatar().setParticipants(message.getSender().getUserId());
+        } else {
+            // Invisible for clustered messages to preserve proper spacing
+            viewHolder.getAvatar().setVisibility(View.INVISIBLE);
+        }
+    }
+
+    private void bindCellContent(CellViewHolder viewHolder, Message message, CellType cellType, int position, boolean oneOnOne) {
         // CellHolder
         AtlasCellFactory.CellHolder cellHolder = viewHolder.getCellHolder();
         cellHolder.setMessage(message);
@@ -375,7 +550,9 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<ViewHolder> imple
         viewHolder.getCellHolderSpecs().position = position;
         viewHolder.getCellHolderSpecs().maxWidth = maxWidth;
         viewHolder.getCellHolderSpecs().maxHeight = maxHeight;
-        cellType.mCellFactory.bindCellHolder(cellHolder, cellType.mCellFactory.getParsedContent(mLayerClient, mParticipantProvider, message), message, viewHolder.getCellHolderSpecs());
+        cellType.mMaxWidth = maxWidth;
+        cellType.mMaxHeight = maxHeight;
+        cellType.mCellFactory.bindCellHolder(cellHolder, getParsedContent(cellType, message), message, viewHolder.getCellHolderSpecs());
     }
 
     private boolean isFirstMessage(com.layer.atlas.adapters.AtlasMessagesAdapter.Cluster cluster) {
@@ -386,11 +563,9 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<ViewHolder> imple
         return cluster.mClusterWithNext == null || cluster.mClusterWithNext != ClusterType.LESS_THAN_MINUTE;
     }
 
-    private void setReceipt(CellViewHolder viewHolder, Message message) {
+    private void setReceipt(CellViewHolder viewHolder, int position) {
         // Read and delivery receipts
-        MessagePosition delivered = mReceiptMap.get(Message.RecipientStatus.DELIVERED);
-
-        if (delivered != null && message == delivered.mMessage) {
+        if (position == mReceiptTracker.getDeliveredPosition()) {
             viewHolder.setDeliveredReceiptText(R.string.atlas_message_item_delivered);
         } else {
             viewHolder.setReadReceiptText(R.string.atlas_message_item_read);
@@ -438,125 +613,49 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<ViewHolder> imple
     // Clustering
     //==============================================================================================
 
-    // TODO: optimize by limiting search to positions in- and around- visible range
-    private Cluster getClustering(Message message, int position) {
-        Cluster result = mClusterCache.get(message.getId());
-        if (result == null) {
-            result = new Cluster();
-            mClusterCache.put(message.getId(), result);
-        }
-
-        int previousPosition = position - 1;
-        Message previousMessage = (previousPosition >= 0) ? getItem(previousPosition) : null;
-        if (previousMessage != null) {
-            result.mDateBoundaryWithPrevious = isDateBoundary(previousMessage.getReceivedAt(), message.getReceivedAt());
-            result.mClusterWithPrevious = ClusterType.fromMessages(previousMessage, message);
-
-            Cluster previousCluster = mClusterCache.get(previousMessage.getId());
-            if (previousCluster == null) {
-                previousCluster = new Cluster();
-                mClusterCache.put(previousMessage.getId(), previousCluster);
-            } else {
-                // does the previous need to change its clustering?
-                if ((previousCluster.mClusterWithNext != result.mClusterWithPrevious) ||
-                        (previousCluster.mDateBoundaryWithNext != result.mDateBoundaryWithPrevious)) {
-                    requestUpdate(previousMessage, previousPosition);
-                }
-            }
-            previousCluster.mClusterWithNext = result.mClusterWithPrevious;
-            previousCluster.mDateBoundaryWithNext = result.mDateBoundaryWithPrevious;
-        }
-
-        int nextPosition = position + 1;
-        Message nextMessage = (nextPosition < getItemCount()) ? getItem(nextPosition) : null;
-        if (nextMessage != null) {
-            result.mDateBoundaryWithNext = isDateBoundary(message.getReceivedAt(), nextMessage.getReceivedAt());
-            result.mClusterWithNext = ClusterType.fromMessages(message, nextMessage);
-
-            Cluster nextCluster = mClusterCache.get(nextMessage.getId());
-            if (nextCluster == null) {
-                nextCluster = new Cluster();
-                mClusterCache.put(nextMessage.getId(), nextCluster);
-            } else {
-                // does the next need to change its clustering?
-                if ((nextCluster.mClusterWithPrevious != result.mClusterWithNext) ||
-                        (nextCluster.mDateBoundaryWithPrevious != result.mDateBoundaryWithNext)) {
-                    requestUpdate(nextMessage, nextPosition);
-                }
-            }
-            nextCluster.mClusterWithPrevious = result.mClusterWithNext;
-            nextCluster.mDateBoundaryWithPrevious = result.mDateBoundaryWithNext;
-        }
-
-        return result;
-    }
-
-    private static boolean isDateBoundary(Date d1, Date d2) {
-        if (d1 == null || d2 == null) return false;
-        return (d1.getYear() != d2.getYear()) || (d1.getMonth() != d2.getMonth()) || (d1.getDay() != d2.getDay());
-    }
-
-    private void requestUpdate(final Message message, final int lastPosition) {
-        mUiThreadHandler.post(new Runnable() {
-            @Override
-            public void run() {
-                notifyItemChanged(getPosition(message, lastPosition));
-            }
-        });
+    /**
+     * Returns the clustering for the given position from the cluster index.  The returned Cluster
+     * is reused between calls and is only valid until the next call.
+     */
+    private Cluster getClustering(int position) {
+        int previous = mClusterIndex.getLink(position);
+        int next = mClusterIndex.getLink(position + 1);
+        mCluster.mClusterWithPrevious = MessageClusterIndex.getClusterType(previous);
+        mCluster.mDateBoundaryWithPrevious = MessageClusterIndex.isDateBoundary(previous);
+        mCluster.mClusterWithNext = MessageClusterIndex.getClusterType(next);
+        mCluster.mDateBoundaryWithNext = MessageClusterIndex.isDateBoundary(next);
+        return mCluster;
     }
 
 
     //==============================================================================================
-    // Read and delivery receipts
+    // Prefetching
     //==============================================================================================
 
-    // TODO: find clever way to prevent worst-case O(n) -- perhaps based on visible positions?
-    private void updateReceipts() {
-        final String userId = mLayerClient.getAuthenticatedUserId();
-        Map<Message.RecipientStatus, MessagePosition> receiptMap = new HashMap<Message.RecipientStatus, MessagePosition>();
-        for (int position = getItemCount(); position >= 0; position--) {
-            Message message = getItem(position);
-            if (message == null) continue;
-
-            // Only display receipts for our own messages
-            if (!userId.equals(message.getSender().getUserId())) continue;
-
-            for (Map.Entry<String, Message.RecipientStatus> entry : message.getRecipientStatus().entrySet()) {
-                // Only show receipts for other members
-                if (entry.getKey().equals(userId)) continue;
-
-                // Only the latest entry for this RecipientStatus matters
-                if (receiptMap.containsKey(entry.getValue())) continue;
-
-                // Found the latest entry for this RecipientStatus
-                receiptMap.put(entry.getValue(), new MessagePosition(message, position));
-            }
-            if (receiptMap.containsKey(Message.RecipientStatus.READ) && receiptMap.containsKey(Message.RecipientStatus.DELIVERED)) {
-                break;
-            }
-        }
-
-        // Refresh previously-marked messages
-        Set<MessagePosition> previousReceiptsToRefresh = new HashSet<MessagePosition>();
-        for (Message.RecipientStatus status : Message.RecipientStatus.values()) {
-            MessagePosition current = (mReceiptMap == null) ? null : mReceiptMap.get(status);
-            MessagePosition next = receiptMap.get(status);
-            if (current != null && next != null && current.mMessage != next.mMessage) {
-                previousReceiptsToRefresh.add(current);
-                previousReceiptsToRefresh.add(next);
-            }
-            if (current != null && next == null) {
-                previousReceiptsToRefresh.add(current);
-            }
-            if (current == null && next != null) {
-                previousReceiptsToRefresh.add(next);
-            }
-        }
-        for (MessagePosition message : previousReceiptsToRefresh) {
-            notifyItemChanged(getPosition(message.mMessage, message.mPosition));
-        }
+    /**
+     * Prepares a Message for display ahead of binding: parses its content, then lets its
+     * AtlasCellFactory start downloads and image loads at the size its cells were last bound with.
+     * Called on a background thread.
+     *
+     * @param message Message about to scroll into view.
+     * @return Estimated bytes started downloading, or -1 if the Message could not be prefetched
+     * yet because no cell of its type has been bound.
+     * @see MessagePrefetcher
+     */
+    @SuppressWarnings("unchecked")
+    int prefetch(Message message) {
+        CellType cellType = getCellType(getViewType(message));
+        if (cellType == null) return 0;
+        if (cellType.mMaxWidth <= 0) return -1;
+        AtlasCellFactory.ParsedContent parsed = getParsedContent(cellType, message);
+        if (parsed == null) return 0;
 
-        mReceiptMap = receiptMap;
+        AtlasCellFactory.CellHolderSpecs specs = new AtlasCellFactory.CellHolderSpecs();
+        specs.isMe = cellType.mMe;
+        specs.position = -1;
+        specs.maxWidth = cellType.mMaxWidth;
+        specs.maxHeight = cellType.mMaxHeight;
+        return cellType.mCellFactory.prefetch(message, parsed, specs);
     }
 
 
@@ -567,28 +666,39 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<ViewHolder> imple
     @Override
     public void onQueryDataSetChanged(RecyclerViewController controller) {
         mFooterPosition = mQueryController.getItemCount();
-        updateReceipts();
+        mViewTypeIndex.onDataSetChanged(mFooterPosition);
+        mClusterIndex.onDataSetChanged(mFooterPosition);
+        mReceiptTracker.onDataSetChanged(mFooterPosition);
+        mBoundStates.clear();
         notifyDataSetChanged();
     }
 
     @Override
     public void onQueryItemChanged(RecyclerViewController controller, int position) {
-        updateReceipts();
-        notifyItemChanged(position);
+        mViewTypeIndex.onItemRangeChanged(position, 1);
+        notifyMessageChanged(position);
+        mClusterIndex.onItemRangeChanged(position, 1);
+        mReceiptTracker.onItemRangeChanged(position, 1);
     }
 
     @Override
     public void onQueryItemRangeChanged(RecyclerViewController controller, int positionStart, int itemCount) {
-        updateReceipts();
-        notifyItemRangeChanged(positionStart, itemCount);
+        mViewTypeIndex.onItemRangeChanged(positionStart, itemCount);
+        for (int position = positionStart; position < positionStart + itemCount; position++) {
+            notifyMessageChanged(position);
+        }
+        mClusterIndex.onItemRangeChanged(positionStart, itemCount);
+        mReceiptTracker.onItemRangeChanged(positionStart, itemCount);
     }
 
     @Override
     public void onQueryItemInserted(RecyclerViewController controller, int position) {
         mFooterPosition++;
-        updateReceipts();
+        mViewTypeIndex.onItemRangeInserted(position, 1);
         notifyItemInserted(position);
-        if (mAppendListener != null && (position + 1) == getItemCount()) {
+        mClusterIndex.onItemRangeInserted(position, 1);
+        mReceiptTracker.onItemRangeInserted(position, 1);
+        if (mAppendListener != null && (position + 1) == mFooterPosition) {
             mAppendListener.onMessageAppend(this, getItem(position));
         }
     }
@@ -596,32 +706,104 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<ViewHolder> imple
     @Override
     public void onQueryItemRangeInserted(RecyclerViewController controller, int positionStart, int itemCount) {
         mFooterPosition += itemCount;
-        updateReceipts();
+        mViewTypeIndex.onItemRangeInserted(positionStart, itemCount);
         notifyItemRangeInserted(positionStart, itemCount);
+        mClusterIndex.onItemRangeInserted(positionStart, itemCount);
+        mReceiptTracker.onItemRangeInserted(positionStart, itemCount);
+        // Only appends notify, so prepended history never auto-scrolls
         int positionEnd = positionStart + itemCount;
-        if (mAppendListener != null && (positionEnd + 1) == getItemCount()) {
-            mAppendListener.onMessageAppend(this, getItem(positionEnd));
+        if (mAppendListener != null && positionEnd == mFooterPosition) {
+            mAppendListener.onMessageAppend(this, getItem(positionEnd - 1));
         }
     }
 
     @Override
     public void onQueryItemRemoved(RecyclerViewController controller, int position) {
         mFooterPosition--;
-        updateReceipts();
+        mViewTypeIndex.onItemRangeRemoved(position, 1);
         notifyItemRemoved(position);
+        mClusterIndex.onItemRangeRemoved(position, 1);
+        mReceiptTracker.onItemRangeRemoved(position, 1);
     }
 
     @Override
     public void onQueryItemRangeRemoved(RecyclerViewController controller, int positionStart, int itemCount) {
         mFooterPosition -= itemCount;
-        updateReceipts();
+        mViewTypeIndex.onItemRangeRemoved(positionStart, itemCount);
         notifyItemRangeRemoved(positionStart, itemCount);
+        mClusterIndex.onItemRangeRemoved(positionStart, itemCount);
+        mReceiptTracker.onItemRangeRemoved(positionStart, itemCount);
     }
 
     @Override
     public void onQueryItemMoved(RecyclerViewController controller, int fromPosition, int toPosition) {
-        updateReceipts();
+        mViewTypeIndex.onItemMoved(fromPosition, toPosition);
         notifyItemMoved(fromPosition, toPosition);
+        mClusterIndex.onItemMoved(fromPosition, toPosition);
+        mReceiptTracker.onItemMoved(fromPosition, toPosition);
+    }
+
+
+    /**
+     * Notifies a changed Message with payloads describing what changed, so bound cells only reload
+     * their content when a MessagePart finished downloading.  Receipt changes are notified by the
+     * receipt tracker.
+     */
+    private void notifyMessageChanged(int position) {
+        Message message = getItem(position);
+        Integer boundState = (message == null) ? null : mBoundStates.get(message.getId());
+        if (boundState == null) {
+            // Not bound, so there is nothing to partially update, but content parsed ahead of
+            // binding may predate a finished download
+            if (message != null) removeStaleParsedContent(message);
+            notifyItemChanged(position);
+            return;
+        }
+        int changed = getBoundState(message) ^ boundState;
+        if ((changed & ~STATE_SENT) != 0) {
+            CellType cellType = getCellType(getViewType(message));
+            if (cellType != null) cellType.mCellFactory.removeParsedContent(message);
+            notifyItemChanged(position, Payload.CONTENT);
+        }
+        if ((changed & STATE_SENT) != 0) {
+            // Sending updates the sent state and times, which may change clustering
+            notifyItemChanged(position, Payload.SENT_STATE);
+            notifyItemChanged(position, Payload.CLUSTER);
+        }
+    }
+
+    private static int getBoundState(Message message) {
+        return (getReadyParts(message) << 1) | (message.isSent() ? STATE_SENT : 0);
+    }
+
+    private static int getReadyParts(Message message) {
+        int readyParts = 0;
+        for (MessagePart part : message.getMessageParts()) {
+            if (part.isContentReady()) readyParts++;
+        }
+        return readyParts;
+    }
+
+    /**
+     * Returns the Message's parsed content from its CellType's factory, recording how many of its
+     * MessageParts were ready to parse.  Safe to call from any thread.
+     */
+    @SuppressWarnings("unchecked")
+    private AtlasCellFactory.ParsedContent getParsedContent(CellType cellType, Message message) {
+        mParsedReadyParts.put(message.getId(), getReadyParts(message));
+        return cellType.mCellFactory.getParsedContent(mLayerClient, mParticipantProvider, message);
+    }
+
+    /**
+     * Removes a Message's parsed content if it may have been parsed with fewer MessageParts ready
+     * than it has now.  Content parsed elsewhere, such as by another adapter, is removed too.
+     */
+    private void removeStaleParsedContent(Message message) {
+        Integer parsedReadyParts = mParsedReadyParts.get(message.getId());
+        if (parsedReadyParts != null && parsedReadyParts == getReadyParts(message)) return;
+        mParsedReadyParts.remove(message.getId());
+        CellType cellType = getCellType(getViewType(message));
+        if (cellType != null) cellType.mCellFactory.removeParsedContent(message);
     }
 
 
@@ -629,6 +811,29 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<ViewHolder> imple
     // Inner classes
     //==============================================================================================
 
+    /**
+     * Change payloads for notifyItemChanged(), each rebinding only the affected parts of a cell.
+     *
+     * @see #bindCellViewHolder(CellViewHolder, int, List)
+     */
+    public enum Payload {
+        // Read and delivery receipt
+        RECEIPT,
+
+        // Cluster gaps, time groups, and everything depending on cluster boundaries
+        CLUSTER,
+
+        // Sent alpha and sent-at time
+        SENT_STATE,
+
+        // Cell content bound by the AtlasCellFactory
+        CONTENT;
+
+        private boolean isIn(int changes) {
+            return (changes & (1 << ordinal())) != 0;
+        }
+    }
+
     public enum ClusterType {
         NEW_SENDER,
         LESS_THAN_MINUTE,
@@ -664,20 +869,14 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<ViewHolder> imple
         public ClusterType mClusterWithNext;
     }
 
-    private static class MessagePosition {
-        public Message mMessage;
-        public int mPosition;
-
-        public MessagePosition(Message message, int position) {
-            mMessage = message;
-            mPosition = position;
-        }
-    }
-
     private static class CellType {
         protected final boolean mMe;
         protected final AtlasCellFactory mCellFactory;
 
+        // Size this CellType was last bound with, for prefetching
+        protected volatile int mMaxWidth;
+        protected volatile int mMaxHeight;
+
         public CellType(boolean me, AtlasCellFactory CellFactory) {
             mMe = me;
             mCellFactory = CellFactory;
@@ -0,0 +1,216 @@
+package com.layer.atlas.adapters;
+
+import android.os.SystemClock;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+
+import com.layer.sdk.LayerClient;
+import com.layer.sdk.changes.LayerChange;
+import com.layer.sdk.changes.LayerChangeEvent;
+import com.layer.sdk.listeners.LayerChangeEventListener;
+import com.layer.sdk.messaging.Conversation;
+
+/**
+ * HistoricSyncPager pages older Messages of a Conversation in from the server.  Page sizes adapt
+ * to how many Messages fit on screen and how long recent pages took to sync, so a page covers the
+ * scrolling done while the next one syncs.  Only one page is in flight at a time.
+ *
+ * Added as a scroll listener to a Messages RecyclerView, it measures Messages per screen and
+ * fetches the next page automatically once the first visible position comes within the distance
+ * of the top.
+ *
+ * HistoricSyncPager registers for change events while it has a Conversation, as a weak listener,
+ * so its owner must hold a reference to it.
+ */
+public class HistoricSyncPager extends RecyclerView.OnScrollListener implements LayerChangeEventListener.BackgroundThread.Weak {
+    public static final int DEFAULT_MIN_PAGE_SIZE = 25;
+    public static final int DEFAULT_MAX_PAGE_SIZE = 250;
+
+    // Use the measured Messages per screen as the distance
+    public static final int DISTANCE_ONE_SCREEN = -1;
+
+    // Assumed time to scroll through one screen of history while a page syncs
+    private static final long SCREEN_SCROLL_MS = 500;
+    private static final int MIN_SCREENS_PER_PAGE = 2;
+    private static final int MAX_SCREENS_PER_PAGE = 10;
+
+    // Weight of each new latency sample, and time after which an unanswered page is given up on
+    private static final float LATENCY_SMOOTHING = 0.3f;
+    private static final long IN_FLIGHT_TIMEOUT_MS = 60 * 1000;
+
+    private final LayerClient mLayerClient;
+    private volatile Conversation mConversation;
+    private Callback mCallback;
+
+    private int mMinPageSize = DEFAULT_MIN_PAGE_SIZE;
+    private int mMaxPageSize = DEFAULT_MAX_PAGE_SIZE;
+    private int mDistance = DISTANCE_ONE_SCREEN;
+    private boolean mAutoFetch = true;
+
+    // Guarded by this
+    private int mMessagesPerScreen = 0;
+    private long mLatencyMs = -1;
+    private long mRequestedAt = 0;
+
+    public HistoricSyncPager(LayerClient layerClient) {
+        mLayerClient = layerClient;
+    }
+
+    /**
+     * Sets the Conversation to page historic Messages for, or `null` to stop.
+     */
+    public HistoricSyncPager setConversation(Conversation conversation) {
+        synchronized (this) {
+            mRequestedAt = 0;
+        }
+        mConversation = conversation;
+        if (conversation == null) {
+            mLayerClient.unregisterEventListener(this);
+        } else {
+            mLayerClient.registerEventListener(this);
+        }
+        return this;
+    }
+
+    public Conversation getConversation() {
+        return mConversation;
+    }
+
+    public HistoricSyncPager setCallback(Callback callback) {
+        mCallback = callback;
+        return this;
+    }
+
+    /**
+     * Sets the smallest page size, used until Messages per screen are measured.
+     */
+    public HistoricSyncPager setMinPageSize(int minPageSize) {
+        mMinPageSize = minPageSize;
+        return this;
+    }
+
+    public HistoricSyncPager setMaxPageSize(int maxPageSize) {
+        mMaxPageSize = maxPageSize;
+        return this;
+    }
+
+    /**
+     * Requests exactly the given number of Messages per page, turning off adaptive page sizes.
+     */
+    public HistoricSyncPager setPageSize(int pageSize) {
+        mMinPageSize = pageSize;
+        mMaxPageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * Sets how close to the top, in positions, the first visible position comes before the next
+     * page is fetched, or DISTANCE_ONE_SCREEN for one screen of Messages.
+     */
+    public HistoricSyncPager setDistance(int distance) {
+        mDistance = distance;
+        return this;
+    }
+
+    /**
+     * Sets whether scrolling near the top fetches the next page automatically.  Defaults to `true`.
+     */
+    public HistoricSyncPager setAutoFetch(boolean autoFetch) {
+        mAutoFetch = autoFetch;
+        return this;
+    }
+
+    /**
+     * Returns the number of Messages the next page will request.
+     */
+    public synchronized int getPageSize() {
+        if (mMessagesPerScreen <= 0) return mMinPageSize;
+        long screens = MIN_SCREENS_PER_PAGE;
+        if (mLatencyMs > 0) {
+            screens = Math.max(MIN_SCREENS_PER_PAGE, Math.min(MAX_SCREENS_PER_PAGE, 1 + mLatencyMs / SCREEN_SCROLL_MS));
+        }
+        long size = mMessagesPerScreen * screens;
+        return (int) Math.max(mMinPageSize, Math.min(mMaxPageSize, size));
+    }
+
+    /**
+     * Returns `true` while a page is syncing.
+     */
+    public synchronized boolean isFetching() {
+        return mRequestedAt != 0 && SystemClock.elapsedRealtime() - mRequestedAt < IN_FLIGHT_TIMEOUT_MS;
+    }
+
+    /**
+     * Requests the next page of historic Messages, unless one is already syncing or there are no
+     * more.  Returns `true` if a page was requested.
+     */
+    public boolean fetch() {
+        Conversation conversation = mConversation;
+        if (conversation == null) return false;
+        if (conversation.getHistoricSyncStatus() != Conversation.HistoricSyncStatus.MORE_AVAILABLE) {
+            return false;
+        }
+        int pageSize;
+        synchronized (this) {
+            if (isFetching()) return false;
+            mRequestedAt = SystemClock.elapsedRealtime();
+            pageSize = getPageSize();
+        }
+        conversation.syncMoreHistoricMessages(pageSize);
+        return true;
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        // Also called with no delta after layout
+        if (dy > 0 || !(recyclerView.getLayoutManager() instanceof LinearLayoutManager)) return;
+        LinearLayoutManager manager = (LinearLayoutManager) recyclerView.getLayoutManager();
+        int first = manager.findFirstVisibleItemPosition();
+        int last = manager.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION) return;
+        int perScreen = last - first + 1;
+        synchronized (this) {
+            mMessagesPerScreen = Math.max(mMessagesPerScreen, perScreen);
+        }
+        if (!mAutoFetch) return;
+        int distance = (mDistance == DISTANCE_ONE_SCREEN) ? perScreen : mDistance;
+        if (first <= distance) fetch();
+    }
+
+    @Override
+    public void onChangeEvent(LayerChangeEvent layerChangeEvent) {
+        Conversation conversation = mConversation;
+        if (conversation == null) return;
+        boolean statusChanged = false;
+        for (LayerChange change : layerChangeEvent.getChanges()) {
+            // Compare identity before any String work
+            if (change.getObject() != conversation) continue;
+            if (change.getChangeType() != LayerChange.Type.UPDATE) continue;
+            if (!"historicSyncStatus".equals(change.getAttributeName())) continue;
+            statusChanged = true;
+            break;
+        }
+        if (!statusChanged) return;
+
+        Conversation.HistoricSyncStatus status = conversation.getHistoricSyncStatus();
+        if (status != Conversation.HistoricSyncStatus.SYNC_PENDING) {
+            synchronized (this) {
+                if (mRequestedAt != 0) {
+                    long latency = SystemClock.elapsedRealtime() - mRequestedAt;
+                    mLatencyMs = (mLatencyMs < 0) ? latency : (long) (mLatencyMs + LATENCY_SMOOTHING * (latency - mLatencyMs));
+                    mRequestedAt = 0;
+                }
+            }
+        }
+        Callback callback = mCallback;
+        if (callback != null) callback.onHistoricSyncStatusChanged(this, status);
+    }
+
+    public interface Callback {
+        /**
+         * Alerts the callback that the Conversation's historic sync status changed.  Called from a
+         * background thread.
+         */
+        void onHistoricSyncStatusChanged(HistoricSyncPager pager, Conversation.HistoricSyncStatus status);
+    }
+}
@@ -0,0 +1,289 @@
+package com.layer.atlas.adapters;
+
+import android.net.Uri;
+
+import com.layer.sdk.LayerClient;
+import com.layer.sdk.messaging.Conversation;
+import com.layer.sdk.messaging.Message;
+import com.layer.sdk.query.Predicate;
+import com.layer.sdk.query.Query;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * HistorySyncScheduler makes sure Conversations in an AtlasBaseAdapter have a desired number of
+ * Messages synced, by requesting more historic Messages for Conversations with fewer locally.
+ *
+ * All work runs on one background thread shared by all schedulers, driven by the viewport.
+ * Conversations in and just beyond the visible range, and Conversations bound to views, are synced
+ * first.  All other scheduled Conversations are deferred until setDeferredAllowed() permits them,
+ * such as once the list is idle or the device is charging.  A new visible range returns
+ * Conversations that scrolled off to the deferred queue.
+ *
+ * Scheduled adapter positions are merged into a single pending range, which is resolved to
+ * Conversations a batch at a time outside the lock, so binding is never blocked on adapter
+ * lookups; each Conversation is queued at most once.  Once a Conversation
+ * has enough Messages or has had more requested, it is remembered as satisfied and is not counted
+ * again until the desired history changes.
+ */
+public class HistorySyncScheduler {
+    public static final int DEFAULT_LOOKAHEAD = 5;
+
+    // Runs the work of all schedulers
+    private static final Executor EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, HistorySyncScheduler.class.getSimpleName());
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    // Adapter positions resolved to Conversations per batch
+    private static final int RESOLVE_BATCH_SIZE = 25;
+
+    private final LayerClient mLayerClient;
+    private final AtlasBaseAdapter<Conversation> mAdapter;
+
+    // Guarded by this
+    private final LinkedList<Conversation> mVisible = new LinkedList<Conversation>();
+    private final Map<Uri, Conversation> mQueue = new LinkedHashMap<Uri, Conversation>();
+    private final Set<Uri> mSatisfied = new HashSet<Uri>();
+    private long mDesiredHistory = 0;
+    private int mRangeStart = 0;
+    private int mRangeEnd = 0;
+    private int mLookahead = DEFAULT_LOOKAHEAD;
+    private int mWindowStart = 0;
+    private int mWindowEnd = 0;
+    private int mWindowGeneration = 0;
+    private boolean mWindowPending = false;
+    private boolean mDeferredAllowed = true;
+    private boolean mRunning = false;
+
+    public HistorySyncScheduler(LayerClient layerClient, AtlasBaseAdapter<Conversation> adapter) {
+        mLayerClient = layerClient;
+        mAdapter = adapter;
+    }
+
+    /**
+     * Sets the number of Messages each Conversation should have synced, or 0 to disable syncing.
+     * Changing it re-checks all Conversations scheduled afterwards.
+     */
+    public synchronized HistorySyncScheduler setDesiredHistory(long desiredHistory) {
+        if (desiredHistory == mDesiredHistory) return this;
+        mDesiredHistory = desiredHistory;
+        mSatisfied.clear();
+        if (desiredHistory <= 0) clear();
+        return this;
+    }
+
+    public synchronized long getDesiredHistory() {
+        return mDesiredHistory;
+    }
+
+    /**
+     * Sets the number of positions beyond each end of the visible range synced with it.
+     */
+    public synchronized HistorySyncScheduler setLookahead(int lookahead) {
+        mLookahead = lookahead;
+        return this;
+    }
+
+    /**
+     * Sets the visible adapter positions, inclusive.  Conversations in and near this range are
+     * synced before all others, and Conversations prioritized for an earlier range are deferred.
+     */
+    public synchronized void setVisibleRange(int first, int last) {
+        if (first < 0 || last < first) return;
+        mWindowStart = Math.max(0, first - mLookahead);
+        mWindowEnd = last + 1 + mLookahead;
+        mWindowGeneration++;
+        mWindowPending = true;
+        for (Conversation conversation : mVisible) {
+            mQueue.put(conversation.getId(), conversation);
+        }
+        mVisible.clear();
+        if (mDesiredHistory > 0) run();
+    }
+
+    /**
+     * Sets whether Conversations outside the visible range may be synced now.  Deferred
+     * Conversations stay queued while not allowed.
+     */
+    public synchronized void setDeferredAllowed(boolean allowed) {
+        mDeferredAllowed = allowed;
+        if (allowed && mDesiredHistory > 0) run();
+    }
+
+    /**
+     * Schedules the Conversations at the given adapter positions, merging with any positions
+     * still pending.
+     */
+    public synchronized void schedule(int start, int length) {
+        if (mDesiredHistory <= 0 || length <= 0) return;
+        if (mRangeStart >= mRangeEnd) {
+            mRangeStart = start;
+            mRangeEnd = start + length;
+        } else {
+            mRangeStart = Math.min(mRangeStart, start);
+            mRangeEnd = Math.max(mRangeEnd, start + length);
+        }
+        run();
+    }
+
+    /**
+     * Schedules a Conversation bound to a view ahead of all other scheduled Conversations.
+     */
+    public synchronized void prioritize(Conversation conversation) {
+        if (mDesiredHistory <= 0 || conversation == null) return;
+        if (mSatisfied.contains(conversation.getId())) return;
+        mQueue.remove(conversation.getId());
+        mVisible.remove(conversation);
+        mVisible.addFirst(conversation);
+        run();
+    }
+
+    /**
+     * Drops all scheduled Conversations and pending positions.
+     */
+    public synchronized void clear() {
+        mVisible.clear();
+        mQueue.clear();
+        mRangeStart = mRangeEnd = 0;
+        mWindowPending = false;
+    }
+
+    private void run() {
+        if (mRunning) return;
+        mRunning = true;
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                Batch batch = new Batch();
+                while (true) {
+                    Conversation conversation;
+                    long desiredHistory;
+                    synchronized (HistorySyncScheduler.this) {
+                        conversation = next(batch);
+                        if (conversation == null && batch.mStart >= batch.mEnd) {
+                            mRunning = false;
+                            return;
+                        }
+                        desiredHistory = mDesiredHistory;
+                    }
+                    if (conversation == null) {
+                        resolve(batch);
+                    } else if (sync(conversation, desiredHistory)) {
+                        synchronized (HistorySyncScheduler.this) {
+                            if (desiredHistory == mDesiredHistory) mSatisfied.add(conversation.getId());
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the next Conversation to check, or `null` with the given Batch set to positions to
+     * resolve first, or `null` with an empty Batch when there is nothing left to do or only
+     * deferred work remains.  Must hold the lock.
+     */
+    private Conversation next(Batch batch) {
+        batch.mStart = batch.mEnd = 0;
+        if (!mVisible.isEmpty()) return mVisible.removeFirst();
+        if (mWindowPending) {
+            mWindowPending = false;
+            batch.mStart = mWindowStart;
+            batch.mEnd = mWindowEnd;
+            batch.mWindowGeneration = mWindowGeneration;
+            return null;
+        }
+        if (!mDeferredAllowed) return null;
+        if (!mQueue.isEmpty()) {
+            Iterator<Conversation> it = mQueue.values().iterator();
+            Conversation conversation = it.next();
+            it.remove();
+            return conversation;
+        }
+        if (mRangeStart >= mRangeEnd) return null;
+        batch.mStart = mRangeStart;
+        batch.mEnd = Math.min(mRangeEnd, mRangeStart + RESOLVE_BATCH_SIZE);
+        batch.mWindowGeneration = -1;
+        mRangeStart = batch.mEnd;
+        return null;
+    }
+
+    /**
+     * Resolves the Batch's positions to Conversations without holding the lock, then queues them:
+     * a current visible window ahead of all deferred work, and anything else as deferred.
+     */
+    private void resolve(Batch batch) {
+        List<Conversation> conversations = new ArrayList<Conversation>(batch.mEnd - batch.mStart);
+        int end = batch.mEnd;
+        for (int i = batch.mStart; i < batch.mEnd; i++) {
+            try {
+                Conversation conversation = mAdapter.getItem(i);
+                if (conversation != null) conversations.add(conversation);
+            } catch (IndexOutOfBoundsException e) {
+                // Past the end of the adapter, or concurrent modification
+                end = i;
+                break;
+            }
+        }
+
+        synchronized (this) {
+            if (mDesiredHistory <= 0) return;
+            boolean window = batch.mWindowGeneration == mWindowGeneration;
+            if (batch.mWindowGeneration < 0 && end < batch.mEnd) {
+                // The adapter shrank, so stop the scheduled range at its end
+                mRangeEnd = Math.min(mRangeEnd, Math.max(mRangeStart, end));
+            }
+            for (Conversation conversation : conversations) {
+                if (mSatisfied.contains(conversation.getId())) continue;
+                if (window) {
+                    mQueue.remove(conversation.getId());
+                    mVisible.remove(conversation);
+                    mVisible.addLast(conversation);
+                } else if (!mVisible.contains(conversation)) {
+                    mQueue.put(conversation.getId(), conversation);
+                }
+            }
+        }
+    }
+
+    /**
+     * Requests more historic Messages for the Conversation if it has fewer than desired locally.
+     * Returns `true` if the Conversation needs no further checks.
+     */
+    private boolean sync(Conversation conversation, long desiredHistory) {
+        if (conversation.getHistoricSyncStatus() != Conversation.HistoricSyncStatus.MORE_AVAILABLE) {
+            return false;
+        }
+        Query<Message> localCountQuery = Query.builder(Message.class)
+                .predicate(new Predicate(Message.Property.CONVERSATION, Predicate.Operator.EQUAL_TO, conversation))
+                .build();
+        long delta = desiredHistory - mLayerClient.executeQueryForCount(localCountQuery);
+        if (delta > 0) conversation.syncMoreHistoricMessages((int) delta);
+        return true;
+    }
+
+    /**
+     * Batch is a range of adapter positions to resolve, from the visible window of the given
+     * generation, or from the scheduled range if the generation is -1.
+     */
+    private static class Batch {
+        int mStart;
+        int mEnd;
+        int mWindowGeneration;
+    }
+}
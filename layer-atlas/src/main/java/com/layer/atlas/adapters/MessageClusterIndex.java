@@ -0,0 +1,231 @@
+package com.layer.atlas.adapters;
+
+import com.layer.sdk.messaging.Message;
+
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * MessageClusterIndex tracks how each Message in an AtlasMessagesAdapter clusters with its
+ * neighbors.  Rather than caching a Cluster object per Message, the index keeps one packed "link"
+ * per adapter position describing the relationship between that position and the one before it.
+ * The link at position `p` is therefore both the "next" cluster of `p - 1` and the "previous"
+ * cluster of `p`, so neighbors can never disagree about their shared boundary.
+ *
+ * Links are computed lazily when a position is bound, and the adapter's query callbacks shift and
+ * patch the index so that each change only recomputes the boundary links it touches.  Neighbors
+ * are re-bound only when their boundary link actually changed.
+ */
+class MessageClusterIndex {
+    // Link has not been computed yet.
+    static final int UNKNOWN = 0;
+
+    // There is no neighbor on this side (first or last Message).
+    static final int NONE = -1;
+
+    private static final int FLAG_DATE_BOUNDARY = 1;
+    private static final AtlasMessagesAdapter.ClusterType[] TYPES = AtlasMessagesAdapter.ClusterType.values();
+
+    private final AtlasMessagesAdapter mAdapter;
+    private int[] mLinks = new int[64];
+    private int mCount = 0;
+
+    // Positions to re-bind, collected while an update is applied and flushed once it is complete.
+    private int[] mPending = new int[4];
+    private int mPendingCount = 0;
+
+    public MessageClusterIndex(AtlasMessagesAdapter adapter) {
+        mAdapter = adapter;
+    }
+
+    /**
+     * Returns the link between `position - 1` and `position`, computing it if needed.
+     *
+     * @param position Position of the newer Message.
+     * @return The packed link, or NONE if either side has no Message.
+     */
+    public int getLink(int position) {
+        if (position <= 0) return NONE;
+        if (position >= mCount) return compute(position);
+        int link = mLinks[position];
+        if (link == UNKNOWN) {
+            link = compute(position);
+            mLinks[position] = link;
+        }
+        return link;
+    }
+
+    public static AtlasMessagesAdapter.ClusterType getClusterType(int link) {
+        return (link == NONE || link == UNKNOWN) ? null : TYPES[(link >> 1) - 1];
+    }
+
+    public static boolean isDateBoundary(int link) {
+        return link != NONE && (link & FLAG_DATE_BOUNDARY) != 0;
+    }
+
+
+    //==============================================================================================
+    // Query callbacks
+    //==============================================================================================
+
+    public void onDataSetChanged(int count) {
+        ensureCapacity(count);
+        Arrays.fill(mLinks, 0, count, UNKNOWN);
+        mCount = count;
+        mPendingCount = 0;
+    }
+
+    public void onItemRangeChanged(int positionStart, int itemCount) {
+        int end = positionStart + itemCount;
+        // Links between changed Messages are recomputed when those Messages are re-bound.
+        for (int i = positionStart + 1; i < end && i < mCount; i++) {
+            mLinks[i] = UNKNOWN;
+        }
+        // Boundary links affect the unchanged neighbors on either side.
+        if (positionStart > 0) {
+            refreshLink(positionStart, positionStart - 1);
+        }
+        if (end < mCount) {
+            refreshLink(end, end);
+        }
+        flush();
+    }
+
+    public void onItemRangeInserted(int positionStart, int itemCount) {
+        insert(positionStart, itemCount);
+        flush();
+    }
+
+    public void onItemRangeRemoved(int positionStart, int itemCount) {
+        remove(positionStart, itemCount);
+        flush();
+    }
+
+    public void onItemMoved(int fromPosition, int toPosition) {
+        remove(fromPosition, 1);
+        // Translate positions collected while removing into post-insert positions.
+        for (int i = 0; i < mPendingCount; i++) {
+            if (mPending[i] >= toPosition) mPending[i]++;
+        }
+        insert(toPosition, 1);
+        // A moved item is not re-bound by the RecyclerView, but its neighbors changed.
+        addPending(toPosition);
+        flush();
+    }
+
+
+    //==============================================================================================
+    // Internals
+    //==============================================================================================
+
+    private void insert(int positionStart, int itemCount) {
+        int oldCount = mCount;
+        int oldLink = (positionStart > 0 && positionStart < oldCount) ? mLinks[positionStart] : NONE;
+
+        ensureCapacity(oldCount + itemCount);
+        if (positionStart < oldCount) {
+            System.arraycopy(mLinks, positionStart, mLinks, positionStart + itemCount, oldCount - positionStart);
+        }
+        Arrays.fill(mLinks, positionStart, positionStart + itemCount, UNKNOWN);
+        mCount = oldCount + itemCount;
+
+        // Nothing was bound across the old boundary, so nothing can be stale.
+        if (oldLink == UNKNOWN) return;
+
+        // The Message before the insert gained a new "next".
+        if (positionStart > 0) {
+            int link = compute(positionStart);
+            mLinks[positionStart] = link;
+            if (link != oldLink) addPending(positionStart - 1);
+        }
+
+        // The Message after the insert gained a new "previous".
+        int after = positionStart + itemCount;
+        if (after < mCount) {
+            int link = compute(after);
+            mLinks[after] = link;
+            if (link != oldLink) addPending(after);
+        }
+    }
+
+    private void remove(int positionStart, int itemCount) {
+        int oldCount = mCount;
+        int end = Math.min(positionStart + itemCount, oldCount);
+        int oldNext = (positionStart > 0 && positionStart < oldCount) ? mLinks[positionStart] : NONE;
+        int oldPrevious = (end < oldCount) ? mLinks[end] : NONE;
+
+        if (end < oldCount) {
+            System.arraycopy(mLinks, end, mLinks, positionStart, oldCount - end);
+        }
+        mCount = oldCount - (end - positionStart);
+
+        if (positionStart >= mCount) {
+            // Removed from the end: the new last Message lost its "next".
+            if (positionStart > 0 && oldNext != UNKNOWN && oldNext != NONE) addPending(positionStart - 1);
+            return;
+        }
+        if (positionStart == 0) {
+            // Removed from the start: the new first Message lost its "previous".
+            mLinks[0] = UNKNOWN;
+            if (oldPrevious != UNKNOWN && oldPrevious != NONE) addPending(0);
+            return;
+        }
+
+        // The Messages on either side of the removed range are now adjacent.
+        if (oldNext == UNKNOWN && oldPrevious == UNKNOWN) {
+            mLinks[positionStart] = UNKNOWN;
+            return;
+        }
+        int link = compute(positionStart);
+        mLinks[positionStart] = link;
+        if (oldNext != UNKNOWN && link != oldNext) addPending(positionStart - 1);
+        if (oldPrevious != UNKNOWN && link != oldPrevious) addPending(positionStart);
+    }
+
+    /**
+     * Recomputes a known link and marks `neighbor` for re-binding if the link changed.
+     */
+    private void refreshLink(int position, int neighbor) {
+        int oldLink = mLinks[position];
+        if (oldLink == UNKNOWN) return;
+        int link = compute(position);
+        mLinks[position] = link;
+        if (link != oldLink) addPending(neighbor);
+    }
+
+    private int compute(int position) {
+        Message older = mAdapter.getItem(position - 1);
+        Message newer = mAdapter.getItem(position);
+        if (older == null || newer == null) return NONE;
+        AtlasMessagesAdapter.ClusterType type = AtlasMessagesAdapter.ClusterType.fromMessages(older, newer);
+        int link = (type.ordinal() + 1) << 1;
+        if (isDateBoundary(older.getReceivedAt(), newer.getReceivedAt())) link |= FLAG_DATE_BOUNDARY;
+        return link;
+    }
+
+    private static boolean isDateBoundary(Date d1, Date d2) {
+        if (d1 == null || d2 == null) return false;
+        return (d1.getYear() != d2.getYear()) || (d1.getMonth() != d2.getMonth()) || (d1.getDay() != d2.getDay());
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mLinks.length) return;
+        mLinks = Arrays.copyOf(mLinks, Math.max(capacity, mLinks.length * 2));
+    }
+
+    private void addPending(int position) {
+        for (int i = 0; i < mPendingCount; i++) {
+            if (mPending[i] == position) return;
+        }
+        if (mPendingCount == mPending.length) mPending = Arrays.copyOf(mPending, mPendingCount * 2);
+        mPending[mPendingCount++] = position;
+    }
+
+    private void flush() {
+        int count = mPendingCount;
+        mPendingCount = 0;
+        for (int i = 0; i < count; i++) {
+            mAdapter.notifyItemChanged(mPending[i], AtlasMessagesAdapter.Payload.CLUSTER);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.layer.atlas.adapters;
+
+import android.content.Context;
+import android.net.Uri;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.LruCache;
+
+import com.layer.sdk.messaging.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MessagePrefetcher watches an AtlasMessagesAdapter's RecyclerView scroll and prepares the next
+ * Messages past the viewport in the scroll direction, so their content is parsed, their
+ * MessageParts are downloading, and their images are in the Picasso memory cache by the time they
+ * scroll into view.  Fast scrolls look twice as far ahead.
+ *
+ * Prefetching runs on a background thread shared by all MessagePrefetchers, nearest Messages
+ * first, and stops once the estimated bytes started downloading exceed the budget.  A newer scroll
+ * position supersedes any prefetch still in progress.
+ *
+ * @see com.layer.atlas.messagetypes.AtlasCellFactory#prefetch
+ */
+public class MessagePrefetcher extends RecyclerView.OnScrollListener {
+    public static final int DEFAULT_DISTANCE = 8;
+    public static final int DEFAULT_BUDGET_BYTES = 1024 * 1024;
+
+    // Scroll distance per scroll event, in dp, beyond which the prefetch distance is doubled
+    private static final int FAST_SCROLL_DP = 24;
+    private static final int PREFETCHED_CACHE_SIZE = 256;
+
+    // Prefetches on one low-priority thread shared by all MessagePrefetchers
+    private static final Executor EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, MessagePrefetcher.class.getSimpleName());
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    private final AtlasMessagesAdapter mAdapter;
+    private final LinearLayoutManager mLayoutManager;
+    private final float mFastScrollPx;
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    // Messages already prefetched, to avoid repeating work when scrolling back and forth
+    private final LruCache<Uri, Boolean> mPrefetched = new LruCache<Uri, Boolean>(PREFETCHED_CACHE_SIZE);
+
+    private int mDistance = DEFAULT_DISTANCE;
+    private int mBudgetBytes = DEFAULT_BUDGET_BYTES;
+    private int mLastStart = RecyclerView.NO_POSITION;
+    private int mLastEnd = RecyclerView.NO_POSITION;
+
+    public MessagePrefetcher(Context context, AtlasMessagesAdapter adapter, LinearLayoutManager layoutManager) {
+        mAdapter = adapter;
+        mLayoutManager = layoutManager;
+        mFastScrollPx = FAST_SCROLL_DP * context.getResources().getDisplayMetrics().density;
+    }
+
+    /**
+     * Sets the number of Messages past the viewport to prefetch, or 0 to disable prefetching.
+     */
+    public MessagePrefetcher setDistance(int distance) {
+        mDistance = distance;
+        return this;
+    }
+
+    public int getDistance() {
+        return mDistance;
+    }
+
+    /**
+     * Sets the estimated bytes of MessagePart and image downloads each prefetch may start.
+     */
+    public MessagePrefetcher setBudgetBytes(int budgetBytes) {
+        mBudgetBytes = budgetBytes;
+        return this;
+    }
+
+    public int getBudgetBytes() {
+        return mBudgetBytes;
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        if (dy == 0 || mDistance <= 0) return;
+        int distance = (Math.abs(dy) > mFastScrollPx) ? (mDistance * 2) : mDistance;
+
+        // Window of positions past the viewport in the scroll direction
+        int start;
+        int end;
+        if (dy > 0) {
+            int last = mLayoutManager.findLastVisibleItemPosition();
+            if (last == RecyclerView.NO_POSITION) return;
+            start = last + 1;
+            end = Math.min(mAdapter.getItemCount(), start + distance);
+        } else {
+            int first = mLayoutManager.findFirstVisibleItemPosition();
+            if (first == RecyclerView.NO_POSITION) return;
+            start = Math.max(0, first - distance);
+            end = first;
+        }
+        if (start >= end || (start == mLastStart && end == mLastEnd)) return;
+        mLastStart = start;
+        mLastEnd = end;
+
+        // Collect Messages on the UI thread, nearest first
+        final List<Message> messages = new ArrayList<Message>(end - start);
+        for (int i = 0; i < end - start; i++) {
+            int position = (dy > 0) ? (start + i) : (end - 1 - i);
+            Message message = mAdapter.getItem(position);
+            if (message == null || mPrefetched.get(message.getId()) != null) continue;
+            messages.add(message);
+        }
+        if (messages.isEmpty()) return;
+
+        final int generation = mGeneration.incrementAndGet();
+        final int budgetBytes = mBudgetBytes;
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                int spent = 0;
+                for (Message message : messages) {
+                    if (generation != mGeneration.get() || spent >= budgetBytes) return;
+                    int bytes = mAdapter.prefetch(message);
+                    // Retry Messages whose cell size was not known yet on a later scroll
+                    if (bytes < 0) continue;
+                    spent += bytes;
+                    mPrefetched.put(message.getId(), Boolean.TRUE);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,284 @@
+package com.layer.atlas.adapters;
+
+import com.layer.sdk.LayerClient;
+import com.layer.sdk.messaging.Message;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * MessageReceiptTracker maintains the positions of the newest READ and DELIVERED Messages sent by
+ * the authenticated user in an AtlasMessagesAdapter.  Positions are tracked per recipient and
+ * updated from only the Messages named in each query callback, so a burst of new Messages costs a
+ * constant amount of work per Message rather than a rescan of the list.
+ *
+ * Receipts are treated as cumulative: once a recipient has read a Message, older Messages that
+ * were only delivered to that recipient no longer count as their newest DELIVERED Message.  The
+ * list is only scanned in full when the data set changes, and a single recipient is re-scanned
+ * when the Message holding its newest receipt is removed or its status regresses.
+ */
+class MessageReceiptTracker {
+    private static final int NO_POSITION = -1;
+
+    private final AtlasMessagesAdapter mAdapter;
+    private final LayerClient mLayerClient;
+    private final Map<String, Receipts> mReceipts = new HashMap<String, Receipts>();
+    private final Set<String> mStale = new HashSet<String>();
+    private int mCount = 0;
+
+    // Newest positions across all recipients
+    private int mReadPosition = NO_POSITION;
+    private int mDeliveredPosition = NO_POSITION;
+
+    public MessageReceiptTracker(AtlasMessagesAdapter adapter, LayerClient layerClient) {
+        mAdapter = adapter;
+        mLayerClient = layerClient;
+    }
+
+    /**
+     * Returns the position of the newest Message read by any recipient, or -1 if none.
+     */
+    public int getReadPosition() {
+        return mReadPosition;
+    }
+
+    /**
+     * Returns the position of the newest Message delivered to any recipient, or -1 if none.
+     */
+    public int getDeliveredPosition() {
+        return mDeliveredPosition;
+    }
+
+
+    //==============================================================================================
+    // Query callbacks
+    //==============================================================================================
+
+    public void onDataSetChanged(int count) {
+        mCount = count;
+        mReceipts.clear();
+        mStale.clear();
+        scan(null);
+        mReadPosition = maxRead();
+        mDeliveredPosition = maxDelivered();
+    }
+
+    public void onItemRangeChanged(int positionStart, int itemCount) {
+        int oldRead = mReadPosition;
+        int oldDelivered = mDeliveredPosition;
+        String userId = mLayerClient.getAuthenticatedUserId();
+        for (int position = positionStart; position < positionStart + itemCount; position++) {
+            apply(userId, position);
+        }
+        update(oldRead, oldDelivered);
+    }
+
+    public void onItemRangeInserted(int positionStart, int itemCount) {
+        int oldRead = shiftInserted(mReadPosition, positionStart, itemCount);
+        int oldDelivered = shiftInserted(mDeliveredPosition, positionStart, itemCount);
+        mCount += itemCount;
+        for (Receipts receipts : mReceipts.values()) {
+            receipts.mRead = shiftInserted(receipts.mRead, positionStart, itemCount);
+            receipts.mDelivered = shiftInserted(receipts.mDelivered, positionStart, itemCount);
+        }
+        String userId = mLayerClient.getAuthenticatedUserId();
+        for (int position = positionStart; position < positionStart + itemCount; position++) {
+            apply(userId, position);
+        }
+        update(oldRead, oldDelivered);
+    }
+
+    public void onItemRangeRemoved(int positionStart, int itemCount) {
+        int oldRead = shiftRemoved(mReadPosition, positionStart, itemCount);
+        int oldDelivered = shiftRemoved(mDeliveredPosition, positionStart, itemCount);
+        mCount -= itemCount;
+        for (Map.Entry<String, Receipts> entry : mReceipts.entrySet()) {
+            Receipts receipts = entry.getValue();
+            int read = shiftRemoved(receipts.mRead, positionStart, itemCount);
+            int delivered = shiftRemoved(receipts.mDelivered, positionStart, itemCount);
+            if ((read == NO_POSITION && receipts.mRead != NO_POSITION) || (delivered == NO_POSITION && receipts.mDelivered != NO_POSITION)) {
+                // This recipient's newest receipt was removed
+                mStale.add(entry.getKey());
+            }
+            receipts.mRead = read;
+            receipts.mDelivered = delivered;
+        }
+        update(oldRead, oldDelivered);
+    }
+
+    public void onItemMoved(int fromPosition, int toPosition) {
+        int oldRead = shiftMoved(mReadPosition, fromPosition, toPosition);
+        int oldDelivered = shiftMoved(mDeliveredPosition, fromPosition, toPosition);
+        for (Map.Entry<String, Receipts> entry : mReceipts.entrySet()) {
+            Receipts receipts = entry.getValue();
+            if (receipts.mRead == fromPosition || receipts.mDelivered == fromPosition) {
+                // Ordering relative to this recipient's other receipts may have changed
+                mStale.add(entry.getKey());
+            }
+            receipts.mRead = shiftMoved(receipts.mRead, fromPosition, toPosition);
+            receipts.mDelivered = shiftMoved(receipts.mDelivered, fromPosition, toPosition);
+        }
+        apply(mLayerClient.getAuthenticatedUserId(), toPosition);
+        update(oldRead, oldDelivered);
+    }
+
+
+    //==============================================================================================
+    // Internals
+    //==============================================================================================
+
+    /**
+     * Folds the receipts of the Message at `position` into the per-recipient positions.
+     */
+    private void apply(String userId, int position) {
+        Message message = mAdapter.getItem(position);
+        if (message == null) return;
+
+        // Only display receipts for our own messages
+        if (!userId.equals(message.getSender().getUserId())) return;
+
+        for (Map.Entry<String, Message.RecipientStatus> entry : message.getRecipientStatus().entrySet()) {
+            // Only show receipts for other members
+            String recipient = entry.getKey();
+            if (recipient.equals(userId)) continue;
+
+            Receipts receipts = mReceipts.get(recipient);
+            if (receipts == null) {
+                receipts = new Receipts();
+                mReceipts.put(recipient, receipts);
+            }
+            Message.RecipientStatus status = entry.getValue();
+            if (status == Message.RecipientStatus.READ) {
+                if (position > receipts.mRead) receipts.mRead = position;
+                if (receipts.mDelivered <= receipts.mRead) receipts.mDelivered = NO_POSITION;
+            } else if (status == Message.RecipientStatus.DELIVERED) {
+                if (receipts.mRead == position) {
+                    mStale.add(recipient);
+                } else if (position > receipts.mDelivered && position > receipts.mRead) {
+                    receipts.mDelivered = position;
+                }
+            } else if (receipts.mRead == position || receipts.mDelivered == position) {
+                mStale.add(recipient);
+            }
+        }
+    }
+
+    /**
+     * Scans backwards from the newest Message, rebuilding receipts for the given recipients, or for
+     * all recipients if `recipients` is `null`.  Stops once every recipient has a READ position,
+     * since older DELIVERED receipts are superseded by it.
+     */
+    private void scan(Set<String> recipients) {
+        String userId = mLayerClient.getAuthenticatedUserId();
+        if (recipients != null) {
+            for (String recipient : recipients) {
+                mReceipts.put(recipient, new Receipts());
+            }
+        }
+        for (int position = mCount - 1; position >= 0; position--) {
+            Message message = mAdapter.getItem(position);
+            if (message == null) continue;
+            if (!userId.equals(message.getSender().getUserId())) continue;
+
+            boolean complete = true;
+            for (Map.Entry<String, Message.RecipientStatus> entry : message.getRecipientStatus().entrySet()) {
+                String recipient = entry.getKey();
+                if (recipient.equals(userId)) continue;
+                if (recipients != null && !recipients.contains(recipient)) continue;
+
+                Receipts receipts = mReceipts.get(recipient);
+                if (receipts == null) {
+                    receipts = new Receipts();
+                    mReceipts.put(recipient, receipts);
+                }
+                if (receipts.mRead != NO_POSITION) continue;
+                if (entry.getValue() == Message.RecipientStatus.READ) {
+                    receipts.mRead = position;
+                } else {
+                    complete = false;
+                    if (entry.getValue() == Message.RecipientStatus.DELIVERED && receipts.mDelivered == NO_POSITION) {
+                        receipts.mDelivered = position;
+                    }
+                }
+            }
+            if (complete && allRead(recipients)) break;
+        }
+    }
+
+    private boolean allRead(Set<String> recipients) {
+        for (Map.Entry<String, Receipts> entry : mReceipts.entrySet()) {
+            if (recipients != null && !recipients.contains(entry.getKey())) continue;
+            if (entry.getValue().mRead == NO_POSITION) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Re-scans stale recipients, recomputes the newest positions, and refreshes affected cells.
+     */
+    private void update(int oldRead, int oldDelivered) {
+        if (!mStale.isEmpty()) {
+            scan(mStale);
+            mStale.clear();
+        }
+        mReadPosition = maxRead();
+        mDeliveredPosition = maxDelivered();
+
+        // Refresh previously-marked messages
+        if (oldRead != mReadPosition) {
+            refresh(oldRead);
+            refresh(mReadPosition);
+        }
+        if (oldDelivered != mDeliveredPosition) {
+            refresh(oldDelivered);
+            refresh(mDeliveredPosition);
+        }
+    }
+
+    private void refresh(int position) {
+        if (position == NO_POSITION || position >= mCount) return;
+        mAdapter.notifyItemChanged(position, AtlasMessagesAdapter.Payload.RECEIPT);
+    }
+
+    private int maxRead() {
+        int max = NO_POSITION;
+        for (Receipts receipts : mReceipts.values()) {
+            if (receipts.mRead > max) max = receipts.mRead;
+        }
+        return max;
+    }
+
+    private int maxDelivered() {
+        int max = NO_POSITION;
+        for (Receipts receipts : mReceipts.values()) {
+            if (receipts.mDelivered > max) max = receipts.mDelivered;
+        }
+        return max;
+    }
+
+    private static int shiftInserted(int position, int positionStart, int itemCount) {
+        if (position == NO_POSITION || position < positionStart) return position;
+        return position + itemCount;
+    }
+
+    private static int shiftRemoved(int position, int positionStart, int itemCount) {
+        if (position == NO_POSITION || position < positionStart) return position;
+        if (position < positionStart + itemCount) return NO_POSITION;
+        return position - itemCount;
+    }
+
+    private static int shiftMoved(int position, int fromPosition, int toPosition) {
+        if (position == NO_POSITION) return position;
+        if (position == fromPosition) return toPosition;
+        if (fromPosition < toPosition && position > fromPosition && position <= toPosition) return position - 1;
+        if (toPosition < fromPosition && position >= toPosition && position < fromPosition) return position + 1;
+        return position;
+    }
+
+    private static class Receipts {
+        public int mRead = NO_POSITION;
+        public int mDelivered = NO_POSITION;
+    }
+}
@@ -0,0 +1,85 @@
+package com.layer.atlas.adapters;
+
+import java.util.Arrays;
+
+/**
+ * MessageViewTypeIndex memoizes the view type of each Message in an AtlasMessagesAdapter by adapter
+ * position.  Like MessageClusterIndex, it keeps a plain int array that the adapter's query
+ * callbacks shift in step with the Messages, so getItemViewType() is a single array read once a
+ * position has been resolved, with no locking or boxing.
+ *
+ * View types are resolved lazily and forgotten for changed positions.  UI thread only.
+ */
+class MessageViewTypeIndex {
+    // View type has not been resolved yet; -1 is a valid view type for unbindable Messages
+    static final int UNKNOWN = Integer.MIN_VALUE;
+
+    private int[] mViewTypes = new int[64];
+    private int mCount = 0;
+
+    /**
+     * Returns the memoized view type at the given position, or UNKNOWN.
+     */
+    public int get(int position) {
+        return (position >= 0 && position < mCount) ? mViewTypes[position] : UNKNOWN;
+    }
+
+    public void put(int position, int viewType) {
+        if (position >= 0 && position < mCount) mViewTypes[position] = viewType;
+    }
+
+    /**
+     * Forgets all memoized view types, such as after CellFactories change.
+     */
+    public void clear() {
+        Arrays.fill(mViewTypes, 0, mCount, UNKNOWN);
+    }
+
+
+    //==============================================================================================
+    // Query callbacks
+    //==============================================================================================
+
+    public void onDataSetChanged(int count) {
+        ensureCapacity(count);
+        mCount = count;
+        clear();
+    }
+
+    public void onItemRangeChanged(int positionStart, int itemCount) {
+        int end = Math.min(positionStart + itemCount, mCount);
+        if (positionStart < end) Arrays.fill(mViewTypes, positionStart, end, UNKNOWN);
+    }
+
+    public void onItemRangeInserted(int positionStart, int itemCount) {
+        ensureCapacity(mCount + itemCount);
+        if (positionStart < mCount) {
+            System.arraycopy(mViewTypes, positionStart, mViewTypes, positionStart + itemCount, mCount - positionStart);
+        }
+        Arrays.fill(mViewTypes, positionStart, positionStart + itemCount, UNKNOWN);
+        mCount += itemCount;
+    }
+
+    public void onItemRangeRemoved(int positionStart, int itemCount) {
+        int end = Math.min(positionStart + itemCount, mCount);
+        if (positionStart >= end) return;
+        System.arraycopy(mViewTypes, end, mViewTypes, positionStart, mCount - end);
+        mCount -= end - positionStart;
+    }
+
+    public void onItemMoved(int fromPosition, int toPosition) {
+        if (fromPosition >= mCount || toPosition >= mCount) return;
+        int viewType = mViewTypes[fromPosition];
+        if (fromPosition < toPosition) {
+            System.arraycopy(mViewTypes, fromPosition + 1, mViewTypes, fromPosition, toPosition - fromPosition);
+        } else {
+            System.arraycopy(mViewTypes, toPosition, mViewTypes, toPosition + 1, fromPosition - toPosition);
+        }
+        mViewTypes[toPosition] = viewType;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mViewTypes.length) return;
+        mViewTypes = Arrays.copyOf(mViewTypes, Math.max(capacity, mViewTypes.length * 2));
+    }
+}
@@ -1,7 +1,7 @@
 package com.layer.atlas.messagetypes;
 
+import android.os.Looper;
 import android.support.v7.widget.RecyclerView;
-import android.util.LruCache;
 import android.view.LayoutInflater;
 import android.view.ViewGroup;
 
@@ -9,6 +9,10 @@ import com.layer.atlas.provider.ParticipantProvider;
 import com.layer.sdk.LayerClient;
 import com.layer.sdk.messaging.Message;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 /**
  * CellFactories manage one or more types ot Messages for display within an AtlasMessagesAdapter.
  * Factories know what types of Messages they can render, generate ViewHolders for rendering their
@@ -16,21 +20,29 @@ import com.layer.sdk.messaging.Message;
  * display.
  */
 public abstract class AtlasCellFactory<Tholder extends AtlasCellFactory.CellHolder, Tcache extends AtlasCellFactory.ParsedContent> {
-    private final LruCache<String, Tcache> mCache;
+    private final int mCacheBytes;
+    private volatile ParsedContentCache.Partition mCache;
     protected MessageStyle mMessageStyle;
 
     /**
-     * Constructs an AtlasCellFactory with a parsed content cache of `cacheBytes` size.
+     * Constructs an AtlasCellFactory whose parsed content is cached in the default
+     * ParsedContentCache, weighted by `cacheBytes` when splitting its budget between factories.
      *
-     * @param cacheBytes Maximum bytes of parsed content to maintain in an LRU cache.
+     * @param cacheBytes Preferred bytes of parsed content to cache, used as this factory's weight.
+     * @see ParsedContentCache
      */
     public AtlasCellFactory(int cacheBytes) {
-        mCache = new LruCache<String, Tcache>(cacheBytes) {
-            @Override
-            protected int sizeOf(String key, Tcache value) {
-                return value.sizeOf();
-            }
-        };
+        mCacheBytes = cacheBytes;
+    }
+
+    /**
+     * Caches this factory's parsed content in the given ParsedContentCache instead of the default.
+     * Factories of the same class share their Partition of a ParsedContentCache.
+     *
+     * @param cache ParsedContentCache to cache parsed content in.
+     */
+    public void setParsedContentCache(ParsedContentCache cache) {
+        mCache = cache.getPartition(getClass().getName(), mCacheBytes);
     }
 
     /**
@@ -42,6 +54,19 @@ public abstract class AtlasCellFactory<Tholder extends AtlasCellFactory.CellHold
      */
     public abstract boolean isBindable(Message message);
 
+    /**
+     * Optionally declares the MessagePart MIME-type signatures this CellFactory binds, allowing the
+     * AtlasMessagesAdapter to dispatch Messages to it by their part MIME types without calling
+     * isBindable().  If signatures are declared, isBindable() must return `true` for exactly the
+     * Messages matching one of them.
+     *
+     * @return MIME-type signatures handled by this CellFactory, or `null` to rely on isBindable().
+     * @see MimeTypeDispatcher
+     */
+    public String[][] getMimeTypeSignatures() {
+        return null;
+    }
+
     /**
      * This method must perform two actions.  First, any required View hierarchy for rendering this
      * CellFactory's Messages must be added to the provided `cellView` - either by inflating a
@@ -79,10 +104,38 @@ public abstract class AtlasCellFactory<Tholder extends AtlasCellFactory.CellHold
      */
     public abstract void bindCellHolder(Tholder cellHolder, Tcache cached, Message message, CellHolderSpecs specs);
 
+    /**
+     * Optionally prepares a Message for display before its cell scrolls into view, for example by
+     * starting MessagePart downloads or loading images into the Picasso memory cache at the size
+     * they will be bound with.  Called on a background thread with content from
+     * getParsedContent() and the specs most recently used to bind this factory's cells.
+     *
+     * @param message Message about to scroll into view.
+     * @param parsed  Parsed content for the Message.
+     * @param specs   Expected CellHolderSpecs for the Message's cell.
+     * @return Estimated bytes this call started downloading, counted against the prefetch budget.
+     */
+    public int prefetch(Message message, Tcache parsed, CellHolderSpecs specs) {
+        return 0;
+    }
+
     public void setStyle(MessageStyle messageStyle) {
         this.mMessageStyle = messageStyle;
     }
 
+    /**
+     * Restores parsed content written by PersistableContent.writeTo() from a
+     * ParsedContentDiskCache.  Override along with implementing PersistableContent to skip parsing
+     * Messages whose content was parsed in a previous process.
+     *
+     * @param in Stream positioned at the content written by PersistableContent.writeTo().
+     * @return Restored parsed content, or `null` to parse the Message again.
+     * @throws IOException if the content could not be read.
+     */
+    public Tcache readContent(DataInputStream in) throws IOException {
+        return null;
+    }
+
     /**
      * Override to handle RecyclerView scrolling.  Example: pause and resume image loading while
      * scrolling.
@@ -96,22 +149,71 @@ public abstract class AtlasCellFactory<Tholder extends AtlasCellFactory.CellHold
         // Optional override
     }
 
+    /**
+     * Override to release work started for a CellHolder when the RecyclerView recycles its cell.
+     * Example: cancel downloads of content the cell no longer displays.
+     *
+     * @param cellHolder CellHolder being recycled.
+     */
+    public void onCellHolderRecycled(Tholder cellHolder) {
+        // Optional override
+    }
+
     /**
      * Returns previously parsed content for this Message, or calls parseContent() if it has not
-     * been previously parsed.
+     * been previously parsed.  When off the main thread, content persisted to a
+     * ParsedContentDiskCache is restored before parsing.
      *
      * @param message Message to return parsed content object for.
      * @return Parsed content object for the given Message.
      */
+    @SuppressWarnings("unchecked")
     public Tcache getParsedContent(LayerClient layerClient, ParticipantProvider participantProvider, Message message) {
-        String id = message.getId().toString();
-        Tcache value = mCache.get(id);
+        ParsedContentCache.Partition cache = getCache();
+        Tcache value = (Tcache) cache.get(message.getId());
         if (value != null) return value;
+
+        // Avoid disk reads on the main thread, where parsing is the lesser cost
+        ParsedContentDiskCache diskCache = cache.getDiskCache();
+        if (diskCache != null && Looper.myLooper() != Looper.getMainLooper()) {
+            value = diskCache.read(cache.getName(), message.getId(), this);
+            if (value != null) {
+                cache.put(message.getId(), value);
+                return value;
+            }
+        }
+
         value = parseContent(layerClient, participantProvider, message);
-        if (value != null) mCache.put(id, value);
+        if (value == null) return null;
+        cache.put(message.getId(), value);
+        if (diskCache != null && value instanceof PersistableContent) {
+            diskCache.write(cache.getName(), message.getId(), (PersistableContent) value);
+        }
         return value;
     }
 
+    /**
+     * Removes previously parsed content for this Message from memory and disk, so it is parsed
+     * again on next use, e.g. after its MessageParts finish downloading.
+     *
+     * @param message Message to remove parsed content for.
+     */
+    public void removeParsedContent(Message message) {
+        ParsedContentCache.Partition cache = getCache();
+        cache.remove(message.getId());
+        ParsedContentDiskCache diskCache = cache.getDiskCache();
+        if (diskCache != null) diskCache.remove(message.getId());
+    }
+
+    private ParsedContentCache.Partition getCache() {
+        ParsedContentCache.Partition cache = mCache;
+        if (cache == null) {
+            cache = ParsedContentCache.getDefault().getPartition(getClass().getName(), mCacheBytes);
+            mCache = cache;
+        }
+        return cache;
+    }
+
     /**
      * CellHolders maintain a reference to their Message, and allow the capture of user interactions
      * with their messages (e.g. clicks).  CellHolders can be extended to act as View caches, where
@@ -162,4 +264,19 @@ public abstract class AtlasCellFactory<Tholder extends AtlasCellFactory.CellHold
          */
         int sizeOf();
     }
+
+    /**
+     * ParsedContent that can be persisted to a ParsedContentDiskCache.  AtlasCellFactories
+     * producing PersistableContent should override readContent() to restore it.
+     */
+    public interface PersistableContent extends ParsedContent {
+        /**
+         * Writes this content in a compact binary form, to be read back by the producing
+         * AtlasCellFactory's readContent().
+         *
+         * @param out Stream to write to.
+         * @throws IOException if the content could not be written.
+         */
+        void writeTo(DataOutputStream out) throws IOException;
+    }
 }
@@ -0,0 +1,120 @@
+package com.layer.atlas.messagetypes;
+
+import com.layer.sdk.messaging.Message;
+import com.layer.sdk.messaging.MessagePart;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MimeTypeDispatcher maps MessagePart MIME-type signatures to registration indices, allowing a
+ * Message's handler to be found by walking its parts once instead of asking every handler in turn.
+ *
+ * A signature is an array of MIME-type patterns matched against a Message's parts in order.  A
+ * pattern is either an exact MIME type (e.g. "text/plain"), a wildcard subtype (e.g. "image/*"),
+ * or, as the last element only, ANY_REMAINING to match any number of further parts.  When several
+ * signatures match, the lowest index wins, mirroring "first registered handler wins".
+ *
+ * @see AtlasCellFactory#getMimeTypeSignatures()
+ */
+public class MimeTypeDispatcher {
+    public static final String ANY_REMAINING = "*";
+    private static final String ANY_SUBTYPE = "/*";
+
+    private final Node mRoot = new Node();
+
+    /**
+     * Registers a signature for the given index.  If the same signature was already registered, the
+     * lower index is kept.
+     *
+     * @param signature MIME-type patterns to match against a Message's parts in order.
+     * @param index     Index to return from find() for matching Messages.
+     */
+    public void add(String[] signature, int index) {
+        Node node = mRoot;
+        for (int i = 0; i < signature.length; i++) {
+            String pattern = signature[i];
+            if (ANY_REMAINING.equals(pattern)) {
+                if (i != signature.length - 1) {
+                    throw new IllegalArgumentException(ANY_REMAINING + " must be the last element of a signature");
+                }
+                node.mRemainingIndex = lower(node.mRemainingIndex, index);
+                return;
+            }
+            node = node.child(pattern);
+        }
+        node.mIndex = lower(node.mIndex, index);
+    }
+
+    /**
+     * Returns the lowest index with a signature matching the given Message, or -1 if none match.
+     *
+     * @param message Message to find a registered index for.
+     * @return The lowest matching index, or -1.
+     */
+    public int find(Message message) {
+        return find(mRoot, message.getMessageParts(), 0);
+    }
+
+    private static int find(Node node, List<MessagePart> parts, int partIndex) {
+        int best = node.mRemainingIndex;
+        if (partIndex == parts.size()) return lower(best, node.mIndex);
+
+        String mimeType = parts.get(partIndex).getMimeType();
+        if (node.mExact != null) {
+            Node child = node.mExact.get(mimeType);
+            if (child != null) best = lower(best, find(child, parts, partIndex + 1));
+        }
+        if (node.mWildcards != null) {
+            for (int i = 0; i < node.mWildcards.size(); i++) {
+                Node child = node.mWildcards.get(i);
+                if (mimeType.startsWith(child.mPrefix)) {
+                    best = lower(best, find(child, parts, partIndex + 1));
+                }
+            }
+        }
+        return best;
+    }
+
+    private static int lower(int a, int b) {
+        if (a < 0) return b;
+        if (b < 0) return a;
+        return Math.min(a, b);
+    }
+
+    private static class Node {
+        // Prefix matched by this node if it was reached through a wildcard subtype
+        private String mPrefix;
+        private Map<String, Node> mExact;
+        private List<Node> mWildcards;
+
+        // Index of the signature ending exactly at this node
+        private int mIndex = -1;
+
+        // Index of the signature ending at this node with ANY_REMAINING
+        private int mRemainingIndex = -1;
+
+        private Node child(String pattern) {
+            if (pattern.endsWith(ANY_SUBTYPE)) {
+                String prefix = pattern.substring(0, pattern.length() - 1);
+                if (mWildcards == null) mWildcards = new ArrayList<Node>();
+                for (Node wildcard : mWildcards) {
+                    if (wildcard.mPrefix.equals(prefix)) return wildcard;
+                }
+                Node wildcard = new Node();
+                wildcard.mPrefix = prefix;
+                mWildcards.add(wildcard);
+                return wildcard;
+            }
+            if (mExact == null) mExact = new HashMap<String, Node>();
+            Node child = mExact.get(pattern);
+            if (child == null) {
+                child = new Node();
+                mExact.put(pattern, child);
+            }
+            return child;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.layer.atlas.messagetypes;
+
+import android.net.Uri;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ParsedContentCache holds the ParsedContent of all AtlasCellFactories within a single memory
+ * budget.  The budget is split into one Partition per AtlasCellFactory class, sized by the weight
+ * each factory registers with, and each Partition is an LRU keyed by Message ID.
+ *
+ * The default cache lives for the lifetime of the process, so parsed content survives configuration
+ * changes and re-opening a conversation.  Provide a different cache with setDefault() or
+ * AtlasCellFactory.setParsedContentCache().  Apps may opt in to persisting PersistableContent
+ * beyond the process by calling setDiskCache(); nothing is written to disk otherwise.  Call
+ * clear() when the user deauthenticates, as Util.deauthenticate() does for the default cache.
+ *
+ * @see AtlasCellFactory#setParsedContentCache(ParsedContentCache)
+ */
+public class ParsedContentCache {
+    private static ParsedContentCache sDefault;
+
+    private final int mMaxBytes;
+    private final Map<String, Partition> mPartitions = new HashMap<String, Partition>();
+    private long mTotalWeight = 0;
+    private volatile ParsedContentDiskCache mDiskCache;
+
+    /**
+     * Constructs a ParsedContentCache holding at most `maxBytes` of ParsedContent across all
+     * Partitions.
+     *
+     * @param maxBytes Maximum total bytes of ParsedContent to hold.
+     */
+    public ParsedContentCache(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the process-wide ParsedContentCache, creating one with 1/64th of the maximum heap if
+     * none was set.
+     */
+    public static synchronized ParsedContentCache getDefault() {
+        if (sDefault == null) {
+            sDefault = new ParsedContentCache((int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 64));
+        }
+        return sDefault;
+    }
+
+    /**
+     * Replaces the process-wide ParsedContentCache.  AtlasCellFactories already using the previous
+     * default keep using it.
+     */
+    public static synchronized void setDefault(ParsedContentCache cache) {
+        sDefault = cache;
+    }
+
+    public int getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * Returns the ParsedContentDiskCache backing this ParsedContentCache, or `null` if none is set.
+     */
+    public ParsedContentDiskCache getDiskCache() {
+        return mDiskCache;
+    }
+
+    /**
+     * Sets the ParsedContentDiskCache to persist PersistableContent to, or `null` to keep parsed
+     * content in memory only.
+     */
+    public void setDiskCache(ParsedContentDiskCache diskCache) {
+        mDiskCache = diskCache;
+    }
+
+    /**
+     * Returns the Partition named `name`, creating it if needed.  The budget is re-split between
+     * Partitions in proportion to their weights whenever a Partition is added or its weight grows.
+     *
+     * @param name   Partition name, typically the AtlasCellFactory class name.
+     * @param weight Relative share of the budget for this Partition.
+     * @return The Partition named `name`.
+     */
+    public synchronized Partition getPartition(String name, int weight) {
+        weight = Math.max(1, weight);
+        Partition partition = mPartitions.get(name);
+        if (partition == null) {
+            partition = new Partition(this, name);
+            partition.mWeight = weight;
+            mPartitions.put(name, partition);
+            mTotalWeight += weight;
+            rebalance();
+        } else if (weight > partition.mWeight) {
+            mTotalWeight += weight - partition.mWeight;
+            partition.mWeight = weight;
+            rebalance();
+        }
+        return partition;
+    }
+
+    /**
+     * Removes all ParsedContent from all Partitions and from the ParsedContentDiskCache, if set,
+     * so no parsed content outlives the user it was parsed for.
+     */
+    public void clear() {
+        evictAll();
+        ParsedContentDiskCache diskCache = mDiskCache;
+        if (diskCache != null) diskCache.clear();
+    }
+
+    /**
+     * Removes all ParsedContent from all Partitions.
+     */
+    public synchronized void evictAll() {
+        for (Partition partition : mPartitions.values()) {
+            partition.evictAll();
+        }
+    }
+
+    private void rebalance() {
+        for (Partition partition : mPartitions.values()) {
+            partition.setMaxBytes((int) (mMaxBytes * partition.mWeight / mTotalWeight));
+        }
+    }
+
+    /**
+     * An LRU of ParsedContent keyed by Message ID, bounded by its share of the ParsedContentCache
+     * budget.  Partitions are safe to use from multiple threads.
+     */
+    public static class Partition {
+        private final ParsedContentCache mOwner;
+        private final String mName;
+        private final LinkedHashMap<Uri, Entry> mEntries = new LinkedHashMap<Uri, Entry>(16, 0.75f, true);
+        private int mWeight;
+        private int mMaxBytes;
+        private int mSize = 0;
+
+        private Partition(ParsedContentCache owner, String name) {
+            mOwner = owner;
+            mName = name;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * Returns the owning ParsedContentCache's ParsedContentDiskCache, or `null` if none is set.
+         */
+        public ParsedContentDiskCache getDiskCache() {
+            return mOwner.getDiskCache();
+        }
+
+        public synchronized AtlasCellFactory.ParsedContent get(Uri messageId) {
+            Entry entry = mEntries.get(messageId);
+            return entry == null ? null : entry.mValue;
+        }
+
+        public synchronized void put(Uri messageId, AtlasCellFactory.ParsedContent value) {
+            Entry entry = new Entry(value, value.sizeOf());
+            Entry previous = mEntries.put(messageId, entry);
+            if (previous != null) mSize -= previous.mSize;
+            mSize += entry.mSize;
+            trim();
+        }
+
+        public synchronized void remove(Uri messageId) {
+            Entry previous = mEntries.remove(messageId);
+            if (previous != null) mSize -= previous.mSize;
+        }
+
+        public synchronized void evictAll() {
+            mEntries.clear();
+            mSize = 0;
+        }
+
+        /**
+         * Returns the total size of ParsedContent in this Partition in bytes.
+         */
+        public synchronized int size() {
+            return mSize;
+        }
+
+        public synchronized int maxSize() {
+            return mMaxBytes;
+        }
+
+        private synchronized void setMaxBytes(int maxBytes) {
+            mMaxBytes = maxBytes;
+            trim();
+        }
+
+        private void trim() {
+            Iterator<Entry> iterator = mEntries.values().iterator();
+            while (mSize > mMaxBytes && iterator.hasNext()) {
+                mSize -= iterator.next().mSize;
+                iterator.remove();
+            }
+        }
+    }
+
+    private static class Entry {
+        private final AtlasCellFactory.ParsedContent mValue;
+        private final int mSize;
+
+        private Entry(AtlasCellFactory.ParsedContent value, int size) {
+            mValue = value;
+            mSize = size;
+        }
+    }
+}
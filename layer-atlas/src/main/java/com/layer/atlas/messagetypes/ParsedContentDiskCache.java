@@ -0,0 +1,281 @@
+package com.layer.atlas.messagetypes;
+
+import android.content.Context;
+import android.net.Uri;
+
+import com.layer.atlas.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * ParsedContentDiskCache persists PersistableContent to a size-bounded directory, so content that
+ * is expensive to parse can be restored after the process restarts instead of being parsed again.
+ *
+ * Each entry is stored in its own file, keyed by partition and Message ID, in a compact binary
+ * format: a header identifying the format, partition, and Message, followed by the content written
+ * by PersistableContent.writeTo().  Writes and removals happen on a single background thread, and
+ * the least-recently-used files are deleted once the directory grows beyond its maximum size.
+ *
+ * @see AtlasCellFactory.PersistableContent
+ * @see ParsedContentCache#setDiskCache(ParsedContentDiskCache)
+ */
+public class ParsedContentDiskCache {
+    private static final int MAGIC = 0x41504331;
+    private static final int FORMAT_VERSION = 1;
+    private static final String DIRECTORY_NAME = "atlas_parsed_content";
+    private static final long DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+    private final Executor mExecutor;
+
+    // Total size of the directory in bytes, only accessed on the executor
+    private long mSize = -1;
+
+    /**
+     * Constructs a ParsedContentDiskCache storing at most `maxBytes` in `directory`.
+     *
+     * @param directory Directory to store entries in.
+     * @param maxBytes  Maximum total size of stored entries in bytes.
+     */
+    public ParsedContentDiskCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, ParsedContentDiskCache.class.getSimpleName());
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Constructs a ParsedContentDiskCache with the default size in the application's cache
+     * directory.
+     */
+    public ParsedContentDiskCache(Context context) {
+        this(new File(context.getCacheDir(), DIRECTORY_NAME), DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Reads content previously written for the given partition and Message.  Performs disk I/O on
+     * the calling thread.
+     *
+     * @param partition Partition the content was written to.
+     * @param messageId ID of the Message the content was parsed from.
+     * @param factory   AtlasCellFactory to restore the content with.
+     * @return The restored content, or `null` if none was found or it could not be read.
+     */
+    public <T extends AtlasCellFactory.ParsedContent> T read(String partition, Uri messageId, AtlasCellFactory<?, T> factory) {
+        File file = getFile(partition, messageId);
+        if (!file.exists()) return null;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readByte() != FORMAT_VERSION) return null;
+            if (!partition.equals(in.readUTF()) || !messageId.toString().equals(in.readUTF())) return null;
+            T content = factory.readContent(in);
+            if (content != null) file.setLastModified(System.currentTimeMillis());
+            return content;
+        } catch (IOException e) {
+            if (Log.isLoggable(Log.ERROR)) {
+                Log.e(e.getMessage(), e);
+            }
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Serializes the given content on the calling thread and writes it on a background thread.
+     *
+     * @param partition Partition to write the content to.
+     * @param messageId ID of the Message the content was parsed from.
+     * @param content   Content to write.
+     */
+    public void write(String partition, Uri messageId, AtlasCellFactory.PersistableContent content) {
+        final byte[] bytes;
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(buffer);
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            out.writeUTF(partition);
+            out.writeUTF(messageId.toString());
+            content.writeTo(out);
+            out.flush();
+            bytes = buffer.toByteArray();
+        } catch (IOException e) {
+            if (Log.isLoggable(Log.ERROR)) {
+                Log.e(e.getMessage(), e);
+            }
+            return;
+        }
+
+        final File file = getFile(partition, messageId);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ensureSize();
+                long previous = file.length();
+                File temp = new File(file.getPath() + ".tmp");
+                FileOutputStream out = null;
+                try {
+                    file.getParentFile().mkdirs();
+                    out = new FileOutputStream(temp);
+                    out.write(bytes);
+                    out.close();
+                    out = null;
+                    if (!temp.renameTo(file)) {
+                        temp.delete();
+                        return;
+                    }
+                    mSize += bytes.length - previous;
+                } catch (IOException e) {
+                    if (Log.isLoggable(Log.ERROR)) {
+                        Log.e(e.getMessage(), e);
+                    }
+                    temp.delete();
+                } finally {
+                    if (out != null) {
+                        try {
+                            out.close();
+                        } catch (IOException e) {
+                            // Ignore
+                        }
+                    }
+                }
+                trim();
+            }
+        });
+    }
+
+    /**
+     * Removes content for the given Message from all partitions, e.g. when the Message changes or
+     * is deleted.
+     *
+     * @param messageId ID of the Message to remove content for.
+     */
+    public void remove(final Uri messageId) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ensureSize();
+                File[] partitions = mDirectory.listFiles();
+                if (partitions == null) return;
+                String name = getFileName(messageId);
+                for (File partition : partitions) {
+                    File file = new File(partition, name);
+                    long length = file.length();
+                    if (file.delete()) mSize -= length;
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes all content from this ParsedContentDiskCache.
+     */
+    public void clear() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (File file : listFiles()) {
+                    file.delete();
+                }
+                mSize = 0;
+            }
+        });
+    }
+
+    private File getFile(String partition, Uri messageId) {
+        return new File(new File(mDirectory, Integer.toHexString(partition.hashCode())), getFileName(messageId));
+    }
+
+    /**
+     * Returns a file name for the given Message ID.  Collisions are resolved by the Message ID
+     * stored in each file's header.
+     */
+    private static String getFileName(Uri messageId) {
+        String segment = messageId.getLastPathSegment();
+        if (segment == null) segment = Integer.toHexString(messageId.hashCode());
+        return segment.replaceAll("[^A-Za-z0-9_-]", "_");
+    }
+
+    private List<File> listFiles() {
+        List<File> files = new ArrayList<File>();
+        File[] partitions = mDirectory.listFiles();
+        if (partitions == null) return files;
+        for (File partition : partitions) {
+            File[] entries = partition.listFiles();
+            if (entries != null) files.addAll(Arrays.asList(entries));
+        }
+        return files;
+    }
+
+    private void ensureSize() {
+        if (mSize >= 0) return;
+        long size = 0;
+        for (File file : listFiles()) {
+            size += file.length();
+        }
+        mSize = size;
+    }
+
+    /**
+     * Deletes least-recently-used files until the directory is within three quarters of its
+     * maximum size, so trimming does not run on every write.
+     */
+    private void trim() {
+        if (mSize <= mMaxBytes) return;
+        List<File> files = listFiles();
+        Entry[] entries = new Entry[files.size()];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = new Entry(files.get(i));
+        }
+        Arrays.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                return lhs.mLastModified < rhs.mLastModified ? -1 : (lhs.mLastModified == rhs.mLastModified ? 0 : 1);
+            }
+        });
+        long target = mMaxBytes * 3 / 4;
+        for (int i = 0; i < entries.length && mSize > target; i++) {
+            long length = entries[i].mFile.length();
+            if (entries[i].mFile.delete()) mSize -= length;
+        }
+    }
+
+    private static class Entry {
+        private final File mFile;
+        private final long mLastModified;
+
+        private Entry(File file) {
+            mFile = file;
+            mLastModified = file.lastModified();
+        }
+    }
+}
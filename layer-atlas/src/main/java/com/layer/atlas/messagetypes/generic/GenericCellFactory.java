@@ -9,6 +9,7 @@ import android.widget.TextView;
 import com.layer.atlas.R;
 import com.layer.atlas.messagetypes.AtlasCellFactory;
 import com.layer.atlas.provider.ParticipantProvider;
+import com.layer.atlas.util.HeapSize;
 import com.layer.sdk.LayerClient;
 import com.layer.sdk.messaging.Message;
 import com.layer.sdk.messaging.MessagePart;
@@ -84,7 +85,7 @@ public class GenericCellFactory extends AtlasCellFactory<GenericCellFactory.Cell
 
         public ParsedContent(String string) {
             mString = string;
-            mSize = mString.getBytes().length;
+            mSize = HeapSize.object(HeapSize.REFERENCE + HeapSize.INT) + HeapSize.of(mString);
         }
 
         public String getString() {
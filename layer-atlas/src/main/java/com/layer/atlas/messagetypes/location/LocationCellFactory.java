@@ -8,28 +8,34 @@ import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ImageView;
 
 import com.layer.atlas.R;
 import com.layer.atlas.messagetypes.AtlasCellFactory;
+import com.layer.atlas.messagetypes.MimeTypeDispatcher;
 import com.layer.atlas.provider.ParticipantProvider;
+import com.layer.atlas.util.HeapSize;
 import com.layer.atlas.util.Log;
 import com.layer.atlas.util.Util;
-import com.layer.atlas.util.picasso.transformations.RoundedTransform;
+import com.layer.atlas.util.views.RoundedImageView;
 import com.layer.sdk.LayerClient;
 import com.layer.sdk.messaging.Message;
 import com.squareup.picasso.Callback;
 import com.squareup.picasso.Picasso;
-import com.squareup.picasso.Transformation;
+import com.squareup.picasso.RequestCreator;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.net.URLEncoder;
 
 public class LocationCellFactory extends AtlasCellFactory<LocationCellFactory.CellHolder, LocationCellFactory.Location> implements View.OnClickListener {
     private static final String PICASSO_TAG = LocationCellFactory.class.getSimpleName();
+    private static final String PICASSO_PREFETCH_TAG = PICASSO_TAG + ".prefetch";
     public static final String MIME_TYPE = "location/coordinate";
+    public static final String[][] MIME_TYPE_SIGNATURES = {{MIME_TYPE, MimeTypeDispatcher.ANY_REMAINING}};
     public static final String KEY_LATITUDE = "lat";
     public static final String KEY_LONGITUDE = "lon";
     public static final String KEY_LABEL = "label";
@@ -37,14 +43,17 @@ public class LocationCellFactory extends AtlasCellFactory<LocationCellFactory.Ce
     private static final int PLACEHOLDER = R.drawable.atlas_message_item_cell_placeholder;
     private static final double GOLDEN_RATIO = (1.0 + Math.sqrt(5.0)) / 2.0;
 
+    // Typical static map size, counted against the prefetch budget
+    private static final int STATIC_MAP_BYTES = 64 * 1024;
+
     private final Picasso mPicasso;
-    private final Transformation mTransform;
+    private final float mCornerRadius;
 
     public LocationCellFactory(Context context, Picasso picasso) {
         super(256 * 1024);
         mPicasso = picasso;
         float radius = context.getResources().getDimension(R.dimen.atlas_message_item_cell_radius);
-        mTransform = new RoundedTransform(radius);
+        mCornerRadius = radius;
     }
 
     public static boolean isType(Message message) {
@@ -60,20 +69,23 @@ public class LocationCellFactory extends AtlasCellFactory<LocationCellFactory.Ce
         return LocationCellFactory.isType(message);
     }
 
+    @Override
+    public String[][] getMimeTypeSignatures() {
+        return MIME_TYPE_SIGNATURES;
+    }
+
     @Override
     public CellHolder createCellHolder(ViewGroup cellView, boolean isMe, LayoutInflater layoutInflater) {
-        return new CellHolder(layoutInflater.inflate(R.layout.atlas_message_item_cell_image, cellView, true));
+        CellHolder cellHolder = new CellHolder(layoutInflater.inflate(R.layout.atlas_message_item_cell_image, cellView, true));
+        cellHolder.mImageView.setCornerRadius(mCornerRadius);
+        return cellHolder;
     }
 
     @Override
     public Location parseContent(LayerClient layerClient, ParticipantProvider participantProvider, Message message) {
         try {
             JSONObject o = new JSONObject(new String(message.getMessageParts().get(0).getData()));
-            Location c = new Location();
-            c.mLatitude = o.optDouble(KEY_LATITUDE, 0);
-            c.mLongitude = o.optDouble(KEY_LONGITUDE, 0);
-            c.mLabel = o.optString(KEY_LABEL, null);
-            return c;
+            return new Location(o.optDouble(KEY_LATITUDE, 0), o.optDouble(KEY_LONGITUDE, 0), o.optString(KEY_LABEL, null));
         } catch (JSONException e) {
             if (Log.isLoggable(Log.ERROR)) {
                 Log.e(e.getMessage(), e);
@@ -82,22 +94,24 @@ public class LocationCellFactory extends AtlasCellFactory<LocationCellFactory.Ce
         return null;
     }
 
+    @Override
+    public Location readContent(DataInputStream in) throws IOException {
+        double latitude = in.readDouble();
+        double longitude = in.readDouble();
+        return new Location(latitude, longitude, in.readBoolean() ? in.readUTF() : null);
+    }
+
     @Override
     public void bindCellHolder(final CellHolder cellHolder, final Location location, Message message, CellHolderSpecs specs) {
         cellHolder.mImageView.setTag(location);
         cellHolder.mImageView.setOnClickListener(this);
 
-        // Google Static Map API has max dimension 640
-        int mapWidth = Math.min(640, specs.maxWidth);
-        int mapHeight = (int) Math.round((double) mapWidth / GOLDEN_RATIO);
         int[] cellDims = Util.scaleDownInside(specs.maxWidth, (int) Math.round((double) specs.maxWidth / GOLDEN_RATIO), specs.maxWidth, specs.maxHeight);
         ViewGroup.LayoutParams params = cellHolder.mImageView.getLayoutParams();
         params.width = cellDims[0];
         params.height = cellDims[1];
         cellHolder.mProgressBar.show();
-        mPicasso.load("https://maps.googleapis.com/maps/api/staticmap?zoom=16&maptype=roadmap&scale=2&center=" + location.mLatitude + "," + location.mLongitude + "&markers=color:red%7C" + location.mLatitude + "," + location.mLongitude + "&size=" + mapWidth + "x" + mapHeight)
-                .tag(PICASSO_TAG).placeholder(PLACEHOLDER).resize(cellDims[0], cellDims[1])
-                .transform(mTransform).into(cellHolder.mImageView, new Callback() {
+        newRequest(location, specs).tag(PICASSO_TAG).placeholder(PLACEHOLDER).into(cellHolder.mImageView, new Callback() {
             @Override
             public void onSuccess() {
                 cellHolder.mProgressBar.hide();
@@ -110,6 +124,25 @@ public class LocationCellFactory extends AtlasCellFactory<LocationCellFactory.Ce
         });
     }
 
+    @Override
+    public int prefetch(Message message, Location location, CellHolderSpecs specs) {
+        newRequest(location, specs).tag(PICASSO_PREFETCH_TAG).priority(Picasso.Priority.LOW).fetch();
+        return STATIC_MAP_BYTES;
+    }
+
+    /**
+     * Returns a static map request sized for the given specs.  Binding and prefetching share this
+     * request so prefetched maps hit the Picasso memory cache.
+     */
+    private RequestCreator newRequest(Location location, CellHolderSpecs specs) {
+        // Google Static Map API has max dimension 640
+        int mapWidth = Math.min(640, specs.maxWidth);
+        int mapHeight = (int) Math.round((double) mapWidth / GOLDEN_RATIO);
+        int[] cellDims = Util.scaleDownInside(specs.maxWidth, (int) Math.round((double) specs.maxWidth / GOLDEN_RATIO), specs.maxWidth, specs.maxHeight);
+        return mPicasso.load("https://maps.googleapis.com/maps/api/staticmap?zoom=16&maptype=roadmap&scale=2&center=" + location.mLatitude + "," + location.mLongitude + "&markers=color:red%7C" + location.mLatitude + "," + location.mLongitude + "&size=" + mapWidth + "x" + mapHeight)
+                .resize(cellDims[0], cellDims[1]);
+    }
+
     @Override
     public void onClick(View v) {
         Location location = (Location) v.getTag();
@@ -131,23 +164,39 @@ public class LocationCellFactory extends AtlasCellFactory<LocationCellFactory.Ce
         }
     }
 
-    static class Location implements AtlasCellFactory.ParsedContent {
-        double mLatitude;
-        double mLongitude;
-        String mLabel;
+    static class Location implements AtlasCellFactory.PersistableContent {
+        final double mLatitude;
+        final double mLongitude;
+        final String mLabel;
+        private final int mSize;
+
+        Location(double latitude, double longitude, String label) {
+            mLatitude = latitude;
+            mLongitude = longitude;
+            mLabel = label;
+            mSize = HeapSize.object(2 * HeapSize.DOUBLE + HeapSize.REFERENCE + HeapSize.INT) + HeapSize.of(mLabel);
+        }
 
         @Override
         public int sizeOf() {
-            return (mLabel == null ? 0 : mLabel.getBytes().length) + ((Double.SIZE + Double.SIZE) / Byte.SIZE);
+            return mSize;
+        }
+
+        @Override
+        public void writeTo(DataOutputStream out) throws IOException {
+            out.writeDouble(mLatitude);
+            out.writeDouble(mLongitude);
+            out.writeBoolean(mLabel != null);
+            if (mLabel != null) out.writeUTF(mLabel);
         }
     }
 
     static class CellHolder extends AtlasCellFactory.CellHolder {
-        ImageView mImageView;
+        RoundedImageView mImageView;
         ContentLoadingProgressBar mProgressBar;
 
         public CellHolder(View view) {
-            mImageView = (ImageView) view.findViewById(R.id.cell_image);
+            mImageView = (RoundedImageView) view.findViewById(R.id.cell_image);
             mProgressBar = (ContentLoadingProgressBar) view.findViewById(R.id.cell_progress);
         }
     }
@@ -11,19 +11,20 @@ import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ImageView;
 
 import com.layer.atlas.R;
 import com.layer.atlas.messagetypes.AtlasCellFactory;
 import com.layer.atlas.provider.ParticipantProvider;
+import com.layer.atlas.util.HeapSize;
+import com.layer.atlas.util.ImagePartLoader;
+import com.layer.atlas.util.MessagePartDownloader;
 import com.layer.atlas.util.imagepopup.AtlasImagePopupActivity;
-import com.layer.atlas.util.picasso.transformations.RoundedTransform;
+import com.layer.atlas.util.views.RoundedImageView;
 import com.layer.sdk.LayerClient;
 import com.layer.sdk.messaging.Message;
 import com.layer.sdk.messaging.MessagePart;
-import com.squareup.picasso.Callback;
 import com.squareup.picasso.Picasso;
-import com.squareup.picasso.Transformation;
+import com.squareup.picasso.RequestCreator;
 
 import java.lang.ref.WeakReference;
 
@@ -37,15 +38,17 @@ public class SinglePartImageCellFactory extends AtlasCellFactory<SinglePartImage
     private final WeakReference<Activity> mActivity;
     private final LayerClient mLayerClient;
     private final Picasso mPicasso;
-    private final Transformation mTransform;
+    private final float mCornerRadius;
+    private final ImagePartLoader mLoader;
 
     public SinglePartImageCellFactory(Activity activity, LayerClient layerClient, Picasso picasso) {
         super(256 * 1024);
         mActivity = new WeakReference<Activity>(activity);
         mLayerClient = layerClient;
         mPicasso = picasso;
+        mLoader = new ImagePartLoader(MessagePartDownloader.getInstance(layerClient), PICASSO_TAG, PLACEHOLDER);
         float radius = activity.getResources().getDimension(com.layer.atlas.R.dimen.atlas_message_item_cell_radius);
-        mTransform = new RoundedTransform(radius);
+        mCornerRadius = radius;
     }
 
     @Override
@@ -55,27 +58,48 @@ public class SinglePartImageCellFactory extends AtlasCellFactory<SinglePartImage
 
     @Override
     public CellHolder createCellHolder(ViewGroup cellView, boolean isMe, LayoutInflater layoutInflater) {
-        return new CellHolder(layoutInflater.inflate(R.layout.atlas_message_item_cell_image, cellView, true));
+        CellHolder cellHolder = new CellHolder(layoutInflater.inflate(R.layout.atlas_message_item_cell_image, cellView, true));
+        cellHolder.mImageView.setCornerRadius(mCornerRadius);
+        return cellHolder;
     }
 
     @Override
     public void bindCellHolder(final CellHolder cellHolder, PartId index, Message message, CellHolderSpecs specs) {
         cellHolder.mImageView.setTag(index);
         cellHolder.mImageView.setOnClickListener(this);
-        cellHolder.mProgressBar.show();
-        mPicasso.load(index.mId).tag(PICASSO_TAG).placeholder(PLACEHOLDER)
-                .centerInside().resize(specs.maxWidth, specs.maxHeight).onlyScaleDown()
-                .transform(mTransform).into(cellHolder.mImageView, new Callback() {
-            @Override
-            public void onSuccess() {
-                cellHolder.mProgressBar.hide();
-            }
+        mLoader.load(cellHolder.mLoadTarget, getPart(message, index), newRequestFactory(index, specs));
+    }
+
+    @Override
+    public int prefetch(Message message, PartId index, CellHolderSpecs specs) {
+        MessagePart part = getPart(message, index);
+        if (part == null) return 0;
+        return mLoader.prefetch(part, newRequestFactory(index, specs));
+    }
+
+    @Override
+    public void onCellHolderRecycled(CellHolder cellHolder) {
+        mLoader.cancel(cellHolder.mLoadTarget);
+    }
+
+    private static MessagePart getPart(Message message, PartId index) {
+        for (MessagePart part : message.getMessageParts()) {
+            if (part.getId().equals(index.mId)) return part;
+        }
+        return null;
+    }
 
+    /**
+     * Returns requests for the image sized for the given specs.  Binding and prefetching share
+     * these requests so prefetched images hit the Picasso memory cache.
+     */
+    private ImagePartLoader.RequestFactory newRequestFactory(final PartId index, final CellHolderSpecs specs) {
+        return new ImagePartLoader.RequestFactory() {
             @Override
-            public void onError() {
-                cellHolder.mProgressBar.hide();
+            public RequestCreator newRequest() {
+                return mPicasso.load(index.mId).centerInside().resize(specs.maxWidth, specs.maxHeight).onlyScaleDown();
             }
-        });
+        };
     }
 
     @Override
@@ -136,25 +160,29 @@ public class SinglePartImageCellFactory extends AtlasCellFactory<SinglePartImage
     //==============================================================================================
 
     public static class CellHolder extends AtlasCellFactory.CellHolder {
-        ImageView mImageView;
+        RoundedImageView mImageView;
         ContentLoadingProgressBar mProgressBar;
+        ImagePartLoader.Target mLoadTarget;
 
         public CellHolder(View view) {
-            mImageView = (ImageView) view.findViewById(R.id.cell_image);
+            mImageView = (RoundedImageView) view.findViewById(R.id.cell_image);
             mProgressBar = (ContentLoadingProgressBar) view.findViewById(R.id.cell_progress);
+            mLoadTarget = new ImagePartLoader.Target(mImageView, mProgressBar);
         }
     }
 
     public static class PartId implements AtlasCellFactory.ParsedContent {
         public final Uri mId;
+        private final int mSize;
 
         public PartId(Uri id) {
             mId = id;
+            mSize = HeapSize.object(HeapSize.REFERENCE + HeapSize.INT) + HeapSize.of(mId);
         }
 
         @Override
         public int sizeOf() {
-            return mId.toString().getBytes().length;
+            return mSize;
         }
     }
 }
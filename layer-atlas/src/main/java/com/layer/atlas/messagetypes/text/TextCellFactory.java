@@ -1,19 +1,29 @@
 package com.layer.atlas.messagetypes.text;
 
 import android.content.Context;
+import android.graphics.Paint;
+import android.graphics.Typeface;
 import android.graphics.drawable.GradientDrawable;
-import android.util.TypedValue;
+import android.text.Layout;
+import android.text.SpannableString;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.util.Linkify;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.TextView;
 import android.widget.Toast;
 
 import com.layer.atlas.R;
 import com.layer.atlas.messagetypes.AtlasCellFactory;
+import com.layer.atlas.messagetypes.MessageStyle;
+import com.layer.atlas.messagetypes.MimeTypeDispatcher;
 import com.layer.atlas.provider.Participant;
 import com.layer.atlas.provider.ParticipantProvider;
+import com.layer.atlas.util.HeapSize;
+import com.layer.atlas.util.MessagePartDownloader;
 import com.layer.atlas.util.Util;
+import com.layer.atlas.util.views.TextLayoutView;
 import com.layer.sdk.LayerClient;
 import com.layer.sdk.messaging.Actor;
 import com.layer.sdk.messaging.Message;
@@ -21,6 +31,18 @@ import com.layer.sdk.messaging.MessagePart;
 
 public class TextCellFactory extends AtlasCellFactory<TextCellFactory.CellHolder, TextCellFactory.TextInfo> implements View.OnLongClickListener {
     public final static String MIME_TYPE = "text/plain";
+    public final static String[][] MIME_TYPE_SIGNATURES = {{MIME_TYPE, MimeTypeDispatcher.ANY_REMAINING}};
+
+    // Paints used to lay out text, built from the MessageStyle
+    private TextPaint mMyTextPaint;
+    private TextPaint mOtherTextPaint;
+
+    // Most recent text widths seen while binding, used to lay out text ahead of binding
+    private volatile int mMyTextWidth = 0;
+    private volatile int mOtherTextWidth = 0;
+
+    // Downloader for the LayerClient content was last parsed with, used for prefetching
+    private volatile MessagePartDownloader mDownloader;
 
     public TextCellFactory() {
         super(256 * 1024);
@@ -41,22 +63,31 @@ public class TextCellFactory extends AtlasCellFactory<TextCellFactory.CellHolder
         return TextCellFactory.isType(message);
     }
 
+    @Override
+    public String[][] getMimeTypeSignatures() {
+        return MIME_TYPE_SIGNATURES;
+    }
+
+    @Override
+    public void setStyle(MessageStyle messageStyle) {
+        super.setStyle(messageStyle);
+        synchronized (this) {
+            mMyTextPaint = null;
+            mOtherTextPaint = null;
+        }
+    }
+
     @Override
     public CellHolder createCellHolder(ViewGroup cellView, boolean isMe, LayoutInflater layoutInflater) {
-        View v = layoutInflater.inflate(R.layout.atlas_message_item_cell_text, cellView, true);
+        View v = layoutInflater.inflate(R.layout.atlas_message_item_cell_text_layout, cellView, true);
         v.setBackgroundResource(isMe ? R.drawable.atlas_message_item_cell_me : R.drawable.atlas_message_item_cell_them);
         ((GradientDrawable) v.getBackground()).setColor(isMe ? mMessageStyle.getMyBubbleColor() : mMessageStyle.getOtherBubbleColor());
-
-        TextView t = (TextView) v.findViewById(R.id.cell_text);
-        t.setTextSize(TypedValue.COMPLEX_UNIT_PX, isMe ? mMessageStyle.getMyTextSize() : mMessageStyle.getOtherTextSize());
-        t.setTextColor(isMe ? mMessageStyle.getMyTextColor() : mMessageStyle.getOtherTextColor());
-        t.setLinkTextColor(isMe ? mMessageStyle.getMyTextColor() : mMessageStyle.getOtherTextColor());
-        t.setTypeface(isMe ? mMessageStyle.getMyTextTypeface() : mMessageStyle.getOtherTextTypeface(), isMe ? mMessageStyle.getMyTextStyle() : mMessageStyle.getOtherTextStyle());
         return new CellHolder(v);
     }
 
     @Override
     public TextInfo parseContent(LayerClient layerClient, ParticipantProvider participantProvider, Message message) {
+        if (mDownloader == null) mDownloader = MessagePartDownloader.getInstance(layerClient);
         MessagePart part = message.getMessageParts().get(0);
         String text = part.isContentReady() ? new String(part.getData()) : "";
         String name;
@@ -67,16 +98,63 @@ public class TextCellFactory extends AtlasCellFactory<TextCellFactory.CellHolder
             Participant participant = participantProvider.getParticipant(sender.getUserId());
             name = participant == null ? "" : (participant.getName() + ": ");
         }
-        return new TextInfo(text, name);
+        TextInfo info = new TextInfo(text, name);
+
+        // Lay out text for the last known width so binding can attach it as-is
+        boolean isMe = sender.getUserId() != null && sender.getUserId().equals(layerClient.getAuthenticatedUserId());
+        int width = isMe ? mMyTextWidth : mOtherTextWidth;
+        if (width > 0) {
+            TextPaint paint = getTextPaint(isMe);
+            info.setLayout(newLayout(info.getText(), paint, width), paint, width);
+        }
+        return info;
     }
 
     @Override
     public void bindCellHolder(CellHolder cellHolder, final TextInfo parsed, Message message, CellHolderSpecs specs) {
-        cellHolder.mTextView.setText(parsed.getString());
+        int width = Math.max(1, specs.maxWidth - cellHolder.mHorizontalPadding);
+        if (specs.isMe) {
+            mMyTextWidth = width;
+        } else {
+            mOtherTextWidth = width;
+        }
+
+        // Only lay out here if the text was parsed before its width or style was known
+        TextPaint paint = getTextPaint(specs.isMe);
+        Layout layout = parsed.getLayout(paint, width);
+        if (layout == null) {
+            layout = newLayout(parsed.getText(), paint, width);
+            parsed.setLayout(layout, paint, width);
+        }
+        cellHolder.mTextView.setTextLayout(layout);
         cellHolder.mTextView.setTag(parsed);
         cellHolder.mTextView.setOnLongClickListener(this);
     }
 
+    @Override
+    public int prefetch(Message message, TextInfo parsed, CellHolderSpecs specs) {
+        MessagePart part = message.getMessageParts().get(0);
+        if (!part.isContentReady()) {
+            // The adapter drops the empty parsed text once the download changes the Message
+            MessagePartDownloader downloader = mDownloader;
+            if (downloader != null) {
+                downloader.download(part, MessagePartDownloader.Priority.PREFETCH, null);
+            } else {
+                part.download(null);
+            }
+            return (int) part.getSize();
+        }
+
+        int width = specs.isMe ? mMyTextWidth : mOtherTextWidth;
+        if (width > 0) {
+            TextPaint paint = getTextPaint(specs.isMe);
+            if (parsed.getLayout(paint, width) == null) {
+                parsed.setLayout(newLayout(parsed.getText(), paint, width), paint, width);
+            }
+        }
+        return 0;
+    }
+
     /**
      * Long click copies message text and sender name to clipboard
      */
@@ -89,29 +167,117 @@ public class TextCellFactory extends AtlasCellFactory<TextCellFactory.CellHolder
         return true;
     }
 
+    /**
+     * Returns a StaticLayout of `text` no wider than `width`, shrunk to its widest line so the
+     * bubble wraps its content.
+     */
+    private static Layout newLayout(CharSequence text, TextPaint paint, int width) {
+        StaticLayout layout = new StaticLayout(text, paint, width, Layout.Alignment.ALIGN_NORMAL, 1f, 0f, true);
+        int widest = 0;
+        for (int i = 0; i < layout.getLineCount(); i++) {
+            widest = Math.max(widest, (int) Math.ceil(layout.getLineWidth(i)));
+        }
+        if (widest >= width || widest == 0) return layout;
+        return new StaticLayout(text, paint, widest, Layout.Alignment.ALIGN_NORMAL, 1f, 0f, true);
+    }
+
+    private synchronized TextPaint getTextPaint(boolean isMe) {
+        if (isMe) {
+            if (mMyTextPaint == null) {
+                mMyTextPaint = newTextPaint(mMessageStyle.getMyTextSize(), mMessageStyle.getMyTextColor(), mMessageStyle.getMyTextTypeface(), mMessageStyle.getMyTextStyle());
+            }
+            return mMyTextPaint;
+        }
+        if (mOtherTextPaint == null) {
+            mOtherTextPaint = newTextPaint(mMessageStyle.getOtherTextSize(), mMessageStyle.getOtherTextColor(), mMessageStyle.getOtherTextTypeface(), mMessageStyle.getOtherTextStyle());
+        }
+        return mOtherTextPaint;
+    }
+
+    /**
+     * Creates a TextPaint styled the way TextView styles its own paint.
+     */
+    private static TextPaint newTextPaint(float size, int color, Typeface typeface, int style) {
+        TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        paint.setTextSize(size);
+        paint.setColor(color);
+        paint.linkColor = color;
+        if (style > 0) {
+            typeface = (typeface == null) ? Typeface.defaultFromStyle(style) : Typeface.create(typeface, style);
+            // Fake styles the typeface cannot provide, as TextView.setTypeface() does
+            int need = style & ~typeface.getStyle();
+            paint.setFakeBoldText((need & Typeface.BOLD) != 0);
+            paint.setTextSkewX((need & Typeface.ITALIC) != 0 ? -0.25f : 0f);
+        }
+        paint.setTypeface(typeface);
+        return paint;
+    }
+
     public static class CellHolder extends AtlasCellFactory.CellHolder {
-        TextView mTextView;
+        TextLayoutView mTextView;
+        int mHorizontalPadding;
 
         public CellHolder(View view) {
-            mTextView = (TextView) view.findViewById(R.id.cell_text);
+            mTextView = (TextLayoutView) view.findViewById(R.id.cell_text);
+            mHorizontalPadding = view.getPaddingLeft() + view.getPaddingRight();
         }
     }
 
     public static class TextInfo implements AtlasCellFactory.ParsedContent {
         private final String mString;
         private final String mClipboardPrefix;
+        private final SpannableString mText;
         private final int mSize;
 
+        // Layout of mText with the paint and width it was laid out for
+        private volatile LaidOut mLaidOut;
+
         public TextInfo(String string, String clipboardPrefix) {
             mString = string;
             mClipboardPrefix = clipboardPrefix;
-            mSize = mString.getBytes().length + mClipboardPrefix.getBytes().length;
+            mText = new SpannableString(string);
+            Linkify.addLinks(mText, Linkify.ALL);
+            // Include the Layout attached later, assuming a typical bubble line length
+            mSize = HeapSize.object(5 * HeapSize.REFERENCE) + HeapSize.of(mString) + HeapSize.of(mClipboardPrefix)
+                    + HeapSize.of(mText) + HeapSize.ofLayout(mString.length(), 30);
         }
 
         public String getString() {
             return mString;
         }
 
+        /**
+         * Returns the message text with links applied.
+         */
+        public CharSequence getText() {
+            return mText;
+        }
+
+        /**
+         * Returns the text Layout previously laid out with an equivalent paint for `width`, or
+         * `null` if there is none.  TextInfo is cached beyond the life of its TextCellFactory, so
+         * paints are compared by style rather than identity.
+         */
+        public Layout getLayout(TextPaint paint, int width) {
+            LaidOut laidOut = mLaidOut;
+            if (laidOut == null || laidOut.mWidth != width) return null;
+            return isSameStyle(laidOut.mPaint, paint) ? laidOut.mLayout : null;
+        }
+
+        public void setLayout(Layout layout, TextPaint paint, int width) {
+            mLaidOut = new LaidOut(layout, paint, width);
+        }
+
+        private static boolean isSameStyle(TextPaint a, TextPaint b) {
+            if (a == b) return true;
+            return a.getTextSize() == b.getTextSize()
+                    && a.getColor() == b.getColor()
+                    && a.linkColor == b.linkColor
+                    && a.isFakeBoldText() == b.isFakeBoldText()
+                    && a.getTextSkewX() == b.getTextSkewX()
+                    && (a.getTypeface() == null ? b.getTypeface() == null : a.getTypeface().equals(b.getTypeface()));
+        }
+
         public String getClipboardPrefix() {
             return mClipboardPrefix;
         }
@@ -120,5 +286,17 @@ public class TextCellFactory extends AtlasCellFactory<TextCellFactory.CellHolder
         public int sizeOf() {
             return mSize;
         }
+
+        private static class LaidOut {
+            private final Layout mLayout;
+            private final TextPaint mPaint;
+            private final int mWidth;
+
+            private LaidOut(Layout layout, TextPaint paint, int width) {
+                mLayout = layout;
+                mPaint = paint;
+                mWidth = width;
+            }
+        }
     }
 }
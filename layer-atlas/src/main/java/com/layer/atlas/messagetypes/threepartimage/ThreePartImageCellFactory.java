@@ -5,6 +5,8 @@ import android.app.ActivityOptions;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.BitmapFactory;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Parcel;
@@ -14,26 +16,29 @@ import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ImageView;
 
 import com.layer.atlas.R;
 import com.layer.atlas.messagetypes.AtlasCellFactory;
 import com.layer.atlas.provider.ParticipantProvider;
+import com.layer.atlas.util.HeapSize;
+import com.layer.atlas.util.ImagePartLoader;
 import com.layer.atlas.util.Log;
+import com.layer.atlas.util.MessagePartDownloader;
 import com.layer.atlas.util.Util;
 import com.layer.atlas.util.imagepopup.AtlasImagePopupActivity;
-import com.layer.atlas.util.picasso.transformations.RoundedTransform;
+import com.layer.atlas.util.views.RoundedImageView;
 import com.layer.sdk.LayerClient;
 import com.layer.sdk.messaging.Message;
 import com.layer.sdk.messaging.MessagePart;
-import com.squareup.picasso.Callback;
 import com.squareup.picasso.Picasso;
 import com.squareup.picasso.RequestCreator;
-import com.squareup.picasso.Transformation;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.List;
 
@@ -45,20 +50,24 @@ import java.util.List;
 public class ThreePartImageCellFactory extends AtlasCellFactory<ThreePartImageCellFactory.CellHolder, ThreePartImageCellFactory.Info> implements View.OnClickListener {
     private static final String PICASSO_TAG = ThreePartImageCellFactory.class.getSimpleName();
 
+    public static final String[][] MIME_TYPE_SIGNATURES = {{"image/*", ThreePartImageUtils.MIME_TYPE_PREVIEW, ThreePartImageUtils.MIME_TYPE_INFO}};
+
     private static final int PLACEHOLDER = R.drawable.atlas_message_item_cell_placeholder;
 
     private final WeakReference<Activity> mActivity;
     private final LayerClient mLayerClient;
     private final Picasso mPicasso;
-    private final Transformation mTransform;
+    private final float mCornerRadius;
+    private final ImagePartLoader mLoader;
 
     public ThreePartImageCellFactory(Activity activity, LayerClient layerClient, Picasso picasso) {
         super(256 * 1024);
         mActivity = new WeakReference<Activity>(activity);
         mLayerClient = layerClient;
         mPicasso = picasso;
+        mLoader = new ImagePartLoader(MessagePartDownloader.getInstance(layerClient), PICASSO_TAG, PLACEHOLDER);
         float radius = activity.getResources().getDimension(com.layer.atlas.R.dimen.atlas_message_item_cell_radius);
-        mTransform = new RoundedTransform(radius);
+        mCornerRadius = radius;
     }
 
     @Override
@@ -66,9 +75,16 @@ public class ThreePartImageCellFactory extends AtlasCellFactory<ThreePartImageCe
         return ThreePartImageCellFactory.isType(message);
     }
 
+    @Override
+    public String[][] getMimeTypeSignatures() {
+        return MIME_TYPE_SIGNATURES;
+    }
+
     @Override
     public CellHolder createCellHolder(ViewGroup cellView, boolean isMe, LayoutInflater layoutInflater) {
-        return new CellHolder(layoutInflater.inflate(R.layout.atlas_message_item_cell_image, cellView, true));
+        CellHolder cellHolder = new CellHolder(layoutInflater.inflate(R.layout.atlas_message_item_cell_image, cellView, true));
+        cellHolder.mImageView.setCornerRadius(mCornerRadius);
+        return cellHolder;
     }
 
     @Override
@@ -76,44 +92,28 @@ public class ThreePartImageCellFactory extends AtlasCellFactory<ThreePartImageCe
         return getInfo(message);
     }
 
+    @Override
+    public Info readContent(DataInputStream in) throws IOException {
+        Info info = new Info();
+        info.orientation = in.readInt();
+        info.width = in.readInt();
+        info.height = in.readInt();
+        info.fullPartId = Uri.parse(in.readUTF());
+        info.previewPartId = Uri.parse(in.readUTF());
+        return info;
+    }
+
     @Override
     public void bindCellHolder(final CellHolder cellHolder, final Info info, final Message message, CellHolderSpecs specs) {
         cellHolder.mImageView.setTag(info);
         cellHolder.mImageView.setOnClickListener(this);
-        MessagePart preview = ThreePartImageUtils.getPreviewPart(message);
 
         // Info width and height are the rotated width and height, though the content is not pre-rotated.
         int[] cellDims = Util.scaleDownInside(info.width, info.height, specs.maxWidth, specs.maxHeight);
         ViewGroup.LayoutParams params = cellHolder.mImageView.getLayoutParams();
         params.width = cellDims[0];
         params.height = cellDims[1];
-        cellHolder.mProgressBar.show();
-        RequestCreator creator = mPicasso.load(preview.getId()).tag(PICASSO_TAG).placeholder(PLACEHOLDER);
-        switch (info.orientation) {
-            case ThreePartImageUtils.ORIENTATION_0:
-                creator.resize(cellDims[0], cellDims[1]);
-                break;
-            case ThreePartImageUtils.ORIENTATION_90:
-                creator.resize(cellDims[1], cellDims[0]).rotate(-90);
-                break;
-            case ThreePartImageUtils.ORIENTATION_180:
-                creator.resize(cellDims[0], cellDims[1]).rotate(180);
-                break;
-            default:
-                creator.resize(cellDims[1], cellDims[0]).rotate(90);
-                break;
-        }
-        creator.centerCrop().transform(mTransform).into(cellHolder.mImageView, new Callback() {
-            @Override
-            public void onSuccess() {
-                cellHolder.mProgressBar.hide();
-            }
-
-            @Override
-            public void onError() {
-                cellHolder.mProgressBar.hide();
-            }
-        });
+        mLoader.load(cellHolder.mLoadTarget, ThreePartImageUtils.getPreviewPart(message), newPreviewRequestFactory(info, specs));
 
         cellHolder.mImageView.setOnLongClickListener(new View.OnLongClickListener() {
             @Override
@@ -138,6 +138,49 @@ public class ThreePartImageCellFactory extends AtlasCellFactory<ThreePartImageCe
         });
     }
 
+    @Override
+    public int prefetch(Message message, Info info, CellHolderSpecs specs) {
+        return mLoader.prefetch(ThreePartImageUtils.getPreviewPart(message), newPreviewRequestFactory(info, specs));
+    }
+
+    @Override
+    public void onCellHolderRecycled(CellHolder cellHolder) {
+        mLoader.cancel(cellHolder.mLoadTarget);
+    }
+
+    /**
+     * Returns requests for the preview sized for the given specs.  Binding and prefetching share
+     * these requests so prefetched previews hit the Picasso memory cache.
+     */
+    private ImagePartLoader.RequestFactory newPreviewRequestFactory(final Info info, final CellHolderSpecs specs) {
+        return new ImagePartLoader.RequestFactory() {
+            @Override
+            public RequestCreator newRequest() {
+                return newPreviewRequest(info, specs);
+            }
+        };
+    }
+
+    private RequestCreator newPreviewRequest(Info info, CellHolderSpecs specs) {
+        int[] cellDims = Util.scaleDownInside(info.width, info.height, specs.maxWidth, specs.maxHeight);
+        RequestCreator creator = mPicasso.load(info.previewPartId);
+        switch (info.orientation) {
+            case ThreePartImageUtils.ORIENTATION_0:
+                creator.resize(cellDims[0], cellDims[1]);
+                break;
+            case ThreePartImageUtils.ORIENTATION_90:
+                creator.resize(cellDims[1], cellDims[0]).rotate(-90);
+                break;
+            case ThreePartImageUtils.ORIENTATION_180:
+                creator.resize(cellDims[0], cellDims[1]).rotate(180);
+                break;
+            default:
+                creator.resize(cellDims[1], cellDims[0]).rotate(90);
+                break;
+        }
+        return creator.centerCrop();
+    }
+
     @Override
     public void onClick(View v) {
         AtlasImagePopupActivity.init(mLayerClient);
@@ -149,6 +192,12 @@ public class ThreePartImageCellFactory extends AtlasCellFactory<ThreePartImageCe
         intent.putExtra("fullId", info.fullPartId);
         intent.putExtra("info", info);
 
+        // Share the cell's decoded preview with the popup rather than decoding it again
+        Drawable drawable = ((RoundedImageView) v).getDrawable();
+        if (info.orientation == ThreePartImageUtils.ORIENTATION_0 && drawable instanceof BitmapDrawable) {
+            AtlasImagePopupActivity.setPreview(info.previewPartId, ((BitmapDrawable) drawable).getBitmap());
+        }
+
         if (Build.VERSION.SDK_INT >= 21) {
             activity.startActivity(intent, ActivityOptions.makeSceneTransitionAnimation(activity, v, "image").toBundle());
         } else {
@@ -209,16 +258,30 @@ public class ThreePartImageCellFactory extends AtlasCellFactory<ThreePartImageCe
     // Inner classes
     //==============================================================================================
 
-    public static class Info implements AtlasCellFactory.ParsedContent, Parcelable {
+    public static class Info implements AtlasCellFactory.PersistableContent, Parcelable {
         public int orientation;
         public int width;
         public int height;
         public Uri fullPartId;
         public Uri previewPartId;
+        private int mSize = -1;
 
         @Override
         public int sizeOf() {
-            return ((Integer.SIZE + Integer.SIZE + Integer.SIZE) / Byte.SIZE) + fullPartId.toString().getBytes().length + previewPartId.toString().getBytes().length;
+            // Fields are assigned after construction, so size on first use
+            if (mSize < 0) {
+                mSize = HeapSize.object(4 * HeapSize.INT + 2 * HeapSize.REFERENCE) + HeapSize.of(fullPartId) + HeapSize.of(previewPartId);
+            }
+            return mSize;
+        }
+
+        @Override
+        public void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(orientation);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeUTF(fullPartId.toString());
+            out.writeUTF(previewPartId.toString());
         }
 
         @Override
@@ -250,12 +313,14 @@ public class ThreePartImageCellFactory extends AtlasCellFactory<ThreePartImageCe
     }
 
     public static class CellHolder extends AtlasCellFactory.CellHolder {
-        ImageView mImageView;
+        RoundedImageView mImageView;
         ContentLoadingProgressBar mProgressBar;
+        ImagePartLoader.Target mLoadTarget;
 
         public CellHolder(View view) {
-            mImageView = (ImageView) view.findViewById(R.id.cell_image);
+            mImageView = (RoundedImageView) view.findViewById(R.id.cell_image);
             mProgressBar = (ContentLoadingProgressBar) view.findViewById(R.id.cell_progress);
+            mLoadTarget = new ImagePartLoader.Target(mImageView, mProgressBar);
         }
     }
 }
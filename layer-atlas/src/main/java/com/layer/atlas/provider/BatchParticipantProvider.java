@@ -0,0 +1,25 @@
+package com.layer.atlas.provider;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * BatchParticipantProvider is a ParticipantProvider that can look up many Participants in one
+ * call, such as with a single database query or network request.  Atlas classes that need several
+ * Participants at once, like Conversation titles and avatar clusters, use getParticipants() when
+ * their ParticipantProvider implements this interface.
+ *
+ * @see com.layer.atlas.util.Util#getParticipants(ParticipantProvider, Collection, Map)
+ */
+public interface BatchParticipantProvider extends ParticipantProvider {
+    /**
+     * Returns a map of the available Participants with the given IDs, keyed by ID.  IDs of
+     * Participants that are not yet available are omitted.  If `result` is provided, it is
+     * operated on and returned.  If `result` is `null`, a new Map is created and returned.
+     *
+     * @param userIds The IDs of the Participants to return
+     * @param result  The Map to operate on
+     * @return A Map of the available Participants keyed by ID.
+     */
+    Map<String, Participant> getParticipants(Collection<String> userIds, Map<String, Participant> result);
+}
@@ -0,0 +1,159 @@
+package com.layer.atlas.provider;
+
+import android.os.SystemClock;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CachingParticipantProvider decorates a ParticipantProvider with a read-through Participant cache,
+ * so repeated lookups while binding rows and avatars do not reach the wrapped provider.  Found
+ * Participants are cached for a time-to-live, and IDs the wrapped provider could not find are
+ * cached as missing for a shorter time so they are retried soon after becoming available.
+ *
+ * Misses from getParticipants() are fetched with a single call when the wrapped provider is a
+ * BatchParticipantProvider.  Call invalidate() when a Participant changes, or invalidateAll() when
+ * many do.  getMatchingParticipants() is not cached and returns the wrapped provider's Map, keeping
+ * its order, but its results refresh Participants already cached; matches are never added, so a
+ * broad search cannot evict frequently used Participants.
+ *
+ * This class is thread safe.
+ */
+public class CachingParticipantProvider implements BatchParticipantProvider {
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+    public static final long DEFAULT_TTL_MS = 5 * 60 * 1000;
+    public static final long DEFAULT_MISSING_TTL_MS = 10 * 1000;
+
+    private final ParticipantProvider mProvider;
+    private final LruCache<String, Entry> mCache;
+    private long mTtlMs = DEFAULT_TTL_MS;
+    private long mMissingTtlMs = DEFAULT_MISSING_TTL_MS;
+
+    public CachingParticipantProvider(ParticipantProvider provider) {
+        this(provider, DEFAULT_MAX_ENTRIES);
+    }
+
+    public CachingParticipantProvider(ParticipantProvider provider, int maxEntries) {
+        mProvider = provider;
+        mCache = new LruCache<String, Entry>(maxEntries);
+    }
+
+    /**
+     * Sets how long found Participants are cached, in milliseconds.
+     */
+    public CachingParticipantProvider setTtl(long ttlMs) {
+        mTtlMs = ttlMs;
+        return this;
+    }
+
+    /**
+     * Sets how long IDs the wrapped provider could not find are cached as missing, in
+     * milliseconds.  Use 0 to always retry missing Participants.
+     */
+    public CachingParticipantProvider setMissingTtl(long missingTtlMs) {
+        mMissingTtlMs = missingTtlMs;
+        return this;
+    }
+
+    /**
+     * Drops the cached Participant with the given ID, such as after their name or avatar changes.
+     */
+    public void invalidate(String userId) {
+        mCache.remove(userId);
+    }
+
+    public void invalidateAll() {
+        mCache.evictAll();
+    }
+
+    @Override
+    public Participant getParticipant(String userId) {
+        Entry entry = getEntry(userId, SystemClock.elapsedRealtime());
+        if (entry != null) return entry.mParticipant;
+        Participant participant = mProvider.getParticipant(userId);
+        put(userId, participant, SystemClock.elapsedRealtime());
+        return participant;
+    }
+
+    @Override
+    public Map<String, Participant> getParticipants(Collection<String> userIds, Map<String, Participant> result) {
+        if (result == null) result = new LinkedHashMap<String, Participant>(userIds.size());
+        long now = SystemClock.elapsedRealtime();
+        List<String> misses = null;
+        for (String userId : userIds) {
+            Entry entry = getEntry(userId, now);
+            if (entry == null) {
+                if (misses == null) misses = new ArrayList<String>();
+                misses.add(userId);
+            } else if (entry.mParticipant != null) {
+                result.put(userId, entry.mParticipant);
+            }
+        }
+        if (misses == null) return result;
+
+        Map<String, Participant> fetched;
+        if (mProvider instanceof BatchParticipantProvider) {
+            fetched = ((BatchParticipantProvider) mProvider).getParticipants(misses, new HashMap<String, Participant>(misses.size()));
+        } else {
+            fetched = new HashMap<String, Participant>(misses.size());
+            for (String userId : misses) {
+                Participant participant = mProvider.getParticipant(userId);
+                if (participant != null) fetched.put(userId, participant);
+            }
+        }
+        now = SystemClock.elapsedRealtime();
+        for (String userId : misses) {
+            Participant participant = fetched.get(userId);
+            put(userId, participant, now);
+            if (participant != null) result.put(userId, participant);
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Participant> getMatchingParticipants(String filter, Map<String, Participant> result) {
+        result = mProvider.getMatchingParticipants(filter, result);
+        long now = SystemClock.elapsedRealtime();
+        for (Map.Entry<String, Participant> match : result.entrySet()) {
+            if (match.getKey() == null || mCache.get(match.getKey()) == null) continue;
+            put(match.getKey(), match.getValue(), now);
+        }
+        return result;
+    }
+
+    private Entry getEntry(String userId, long now) {
+        if (userId == null) return null;
+        Entry entry = mCache.get(userId);
+        if (entry == null) return null;
+        if (now >= entry.mExpiresAt) {
+            mCache.remove(userId);
+            return null;
+        }
+        return entry;
+    }
+
+    private void put(String userId, Participant participant, long now) {
+        if (userId == null) return;
+        long ttl = (participant == null) ? mMissingTtlMs : mTtlMs;
+        if (ttl <= 0) {
+            mCache.remove(userId);
+            return;
+        }
+        mCache.put(userId, new Entry(participant, now + ttl));
+    }
+
+    private static class Entry {
+        final Participant mParticipant;
+        final long mExpiresAt;
+
+        Entry(Participant participant, long expiresAt) {
+            mParticipant = participant;
+            mExpiresAt = expiresAt;
+        }
+    }
+}
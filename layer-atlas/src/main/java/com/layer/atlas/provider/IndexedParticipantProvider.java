@@ -0,0 +1,405 @@
+package com.layer.atlas.provider;
+
+import com.layer.atlas.util.Util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * IndexedParticipantProvider decorates a ParticipantProvider with an in-memory search index over
+ * Participant names, so getMatchingParticipants() does not scan every Participant.  Names are
+ * split into words, which are indexed in a prefix trie for matching the start of any word, and by
+ * trigram for matching anywhere within a name.
+ *
+ * The index is built from the wrapped provider's full Participant list on construction or
+ * rebuild(), and kept current with add(), update(), and remove() as Participants change.  Matches
+ * are returned ranked: names starting with the filter first, then names with words starting with
+ * each filter word, then names containing the filter words, each in Participant order.  Searches
+ * with a limit stop once they have found that many matches, so they rank the first matches found
+ * rather than all of them.
+ *
+ * This class is thread safe.
+ */
+public class IndexedParticipantProvider implements BatchParticipantProvider {
+    private static final int RANK_NAME_PREFIX = 0;
+    private static final int RANK_WORD_PREFIX = 1;
+    private static final int RANK_SUBSTRING = 2;
+
+    private final ParticipantProvider mProvider;
+
+    // Indexed Participants by ID and in Participant order, the word prefix trie, and IDs by name
+    // trigram
+    private final Map<String, Participant> mParticipants = new HashMap<String, Participant>();
+    private final List<Participant> mSorted = new ArrayList<Participant>();
+    private final Node mTrie = new Node();
+    private final Map<String, Set<String>> mTrigrams = new HashMap<String, Set<String>>();
+
+    public IndexedParticipantProvider(ParticipantProvider provider) {
+        mProvider = provider;
+        rebuild();
+    }
+
+    /**
+     * Rebuilds the index from all Participants of the wrapped ParticipantProvider.
+     */
+    public synchronized IndexedParticipantProvider rebuild() {
+        mParticipants.clear();
+        mSorted.clear();
+        mTrie.mChildren.clear();
+        mTrie.mIds.clear();
+        mTrigrams.clear();
+        Map<String, Participant> all = mProvider.getMatchingParticipants(null, null);
+        if (all != null) {
+            for (Participant participant : all.values()) {
+                mParticipants.put(participant.getId(), participant);
+                indexName(participant);
+            }
+            mSorted.addAll(mParticipants.values());
+            Collections.sort(mSorted);
+        }
+        return this;
+    }
+
+    /**
+     * Adds a Participant to the index, replacing any indexed Participant with the same ID.
+     */
+    public synchronized IndexedParticipantProvider add(Participant participant) {
+        unindex(participant.getId());
+        index(participant);
+        return this;
+    }
+
+    /**
+     * Re-indexes a Participant whose name changed.
+     */
+    public IndexedParticipantProvider update(Participant participant) {
+        return add(participant);
+    }
+
+    /**
+     * Removes the Participant with the given ID from the index.
+     */
+    public synchronized IndexedParticipantProvider remove(String participantId) {
+        unindex(participantId);
+        return this;
+    }
+
+    @Override
+    public Map<String, Participant> getMatchingParticipants(String filter, Map<String, Participant> result) {
+        if (result == null) result = new LinkedHashMap<String, Participant>();
+        for (Participant participant : search(filter, Integer.MAX_VALUE)) {
+            result.put(participant.getId(), participant);
+        }
+        return result;
+    }
+
+    /**
+     * Returns up to `limit` Participants matching the given filter in rank order, or all
+     * Participants in Participant order if `filter` is `null` or blank.
+     */
+    public List<Participant> search(String filter, int limit) {
+        if (limit <= 0) return new ArrayList<Participant>(0);
+        List<String> words = (filter == null) ? Collections.<String>emptyList() : words(filter);
+        final Map<String, Integer> ranks = new HashMap<String, Integer>();
+        List<Participant> participants;
+        synchronized (this) {
+            if (words.isEmpty()) {
+                return new ArrayList<Participant>(mSorted.subList(0, Math.min(limit, mSorted.size())));
+            }
+
+            // Find candidates by the most selective word and check them against the others, which
+            // may reject candidates, so only a single word can stop collecting at the limit
+            String lead = words.get(0);
+            for (String word : words) {
+                if (word.length() > lead.length()) lead = word;
+            }
+            int collectLimit = (words.size() == 1) ? limit : Integer.MAX_VALUE;
+            Set<String> candidates = new LinkedHashSet<String>();
+            collect(find(lead), candidates, collectLimit);
+            if (lead.length() >= 3 && candidates.size() < collectLimit) candidates.addAll(containing(lead));
+
+            String normalizedFilter = normalize(filter).trim();
+            participants = new ArrayList<Participant>(Math.min(limit, candidates.size()));
+            for (String id : candidates) {
+                Participant participant = mParticipants.get(id);
+                List<String> nameWords = words(participant.getName());
+                if (!matches(participant, nameWords, words)) continue;
+                participants.add(participant);
+                ranks.put(id, rank(participant, nameWords, normalizedFilter, words));
+                if (participants.size() == limit) break;
+            }
+        }
+
+        Collections.sort(participants, new Comparator<Participant>() {
+            @Override
+            public int compare(Participant lhs, Participant rhs) {
+                int rank = ranks.get(lhs.getId()).compareTo(ranks.get(rhs.getId()));
+                return (rank != 0) ? rank : lhs.compareTo(rhs);
+            }
+        });
+        return participants;
+    }
+
+    @Override
+    public Participant getParticipant(String userId) {
+        synchronized (this) {
+            Participant participant = mParticipants.get(userId);
+            if (participant != null) return participant;
+        }
+        return mProvider.getParticipant(userId);
+    }
+
+    @Override
+    public Map<String, Participant> getParticipants(Collection<String> userIds, Map<String, Participant> result) {
+        if (result == null) result = new LinkedHashMap<String, Participant>(userIds.size());
+        List<String> misses = null;
+        synchronized (this) {
+            for (String userId : userIds) {
+                Participant participant = mParticipants.get(userId);
+                if (participant != null) {
+                    result.put(userId, participant);
+                } else {
+                    if (misses == null) misses = new ArrayList<String>();
+                    misses.add(userId);
+                }
+            }
+        }
+        return (misses == null) ? result : Util.getParticipants(mProvider, misses, result);
+    }
+
+
+    //==============================================================================================
+    // Indexing
+    //==============================================================================================
+
+    private void index(Participant participant) {
+        mParticipants.put(participant.getId(), participant);
+        int i = Collections.binarySearch(mSorted, participant);
+        mSorted.add((i < 0) ? -(i + 1) : i, participant);
+        indexName(participant);
+    }
+
+    private void indexName(Participant participant) {
+        String id = participant.getId();
+        for (String word : words(participant.getName())) {
+            Node node = mTrie;
+            for (int i = 0; i < word.length(); i++) {
+                char c = word.charAt(i);
+                Node child = node.mChildren.get(c);
+                if (child == null) {
+                    child = new Node();
+                    node.mChildren.put(c, child);
+                }
+                node = child;
+            }
+            node.mIds.add(id);
+        }
+        for (String trigram : trigrams(participant.getName())) {
+            Set<String> ids = mTrigrams.get(trigram);
+            if (ids == null) {
+                ids = new HashSet<String>();
+                mTrigrams.put(trigram, ids);
+            }
+            ids.add(id);
+        }
+    }
+
+    private void unindex(String participantId) {
+        Participant participant = mParticipants.remove(participantId);
+        if (participant == null) return;
+        removeSorted(participant);
+        for (String word : words(participant.getName())) {
+            removeWord(mTrie, word, 0, participantId);
+        }
+        for (String trigram : trigrams(participant.getName())) {
+            Set<String> ids = mTrigrams.get(trigram);
+            if (ids == null) continue;
+            ids.remove(participantId);
+            if (ids.isEmpty()) mTrigrams.remove(trigram);
+        }
+    }
+
+    /**
+     * Removes the given Participant from the sorted list, searching the run of Participants that
+     * compare equal to it, or the whole list if it changed in place and no longer sorts there.
+     */
+    private void removeSorted(Participant participant) {
+        int i = Collections.binarySearch(mSorted, participant);
+        if (i >= 0) {
+            int start = i;
+            while (start > 0 && mSorted.get(start - 1).compareTo(participant) == 0) start--;
+            for (int j = start; j < mSorted.size() && mSorted.get(j).compareTo(participant) == 0; j++) {
+                if (mSorted.get(j) == participant) {
+                    mSorted.remove(j);
+                    return;
+                }
+            }
+        }
+        for (int j = 0; j < mSorted.size(); j++) {
+            if (mSorted.get(j) == participant) {
+                mSorted.remove(j);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes the ID from the node for `word` and prunes emptied nodes.  Returns `true` if the
+     * given node is now empty.
+     */
+    private static boolean removeWord(Node node, String word, int depth, String id) {
+        if (depth == word.length()) {
+            node.mIds.remove(id);
+        } else {
+            char c = word.charAt(depth);
+            Node child = node.mChildren.get(c);
+            if (child != null && removeWord(child, word, depth + 1, id)) node.mChildren.remove(c);
+        }
+        return node.mIds.isEmpty() && node.mChildren.isEmpty();
+    }
+
+
+    //==============================================================================================
+    // Searching
+    //==============================================================================================
+
+    private Node find(String prefix) {
+        Node node = mTrie;
+        for (int i = 0; i < prefix.length() && node != null; i++) {
+            node = node.mChildren.get(prefix.charAt(i));
+        }
+        return node;
+    }
+
+    /**
+     * Adds IDs under the given node, shortest words first, until `ids` holds `limit` IDs.
+     */
+    private static void collect(Node node, Set<String> ids, int limit) {
+        if (node == null) return;
+        ArrayDeque<Node> queue = new ArrayDeque<Node>();
+        queue.add(node);
+        while (!queue.isEmpty()) {
+            Node next = queue.poll();
+            for (String id : next.mIds) {
+                ids.add(id);
+                if (ids.size() >= limit) return;
+            }
+            queue.addAll(next.mChildren.values());
+        }
+    }
+
+    /**
+     * Returns IDs of Participants whose names contain the given word, which must be at least three
+     * characters long.
+     */
+    private Set<String> containing(String word) {
+        // Intersect from the rarest trigram
+        List<Set<String>> sets = new ArrayList<Set<String>>(word.length() - 2);
+        for (int i = 0; i + 3 <= word.length(); i++) {
+            Set<String> ids = mTrigrams.get(word.substring(i, i + 3));
+            if (ids == null) return Collections.emptySet();
+            sets.add(ids);
+        }
+        Collections.sort(sets, new Comparator<Set<String>>() {
+            @Override
+            public int compare(Set<String> lhs, Set<String> rhs) {
+                return (lhs.size() < rhs.size()) ? -1 : ((lhs.size() == rhs.size()) ? 0 : 1);
+            }
+        });
+        Set<String> candidates = new HashSet<String>(sets.get(0));
+        for (int i = 1; i < sets.size() && !candidates.isEmpty(); i++) {
+            candidates.retainAll(sets.get(i));
+        }
+
+        // Trigrams can match out of order, so verify
+        Set<String> ids = new HashSet<String>(candidates.size());
+        for (String id : candidates) {
+            if (normalize(mParticipants.get(id).getName()).contains(word)) ids.add(id);
+        }
+        return ids;
+    }
+
+    /**
+     * Returns `true` if every filter word starts a word of the name, or is contained in the name
+     * when three or more characters long.
+     */
+    private static boolean matches(Participant participant, List<String> nameWords, List<String> words) {
+        String name = null;
+        for (String word : words) {
+            if (startsWord(nameWords, word)) continue;
+            if (word.length() < 3) return false;
+            if (name == null) name = normalize(participant.getName());
+            if (!name.contains(word)) return false;
+        }
+        return true;
+    }
+
+    private static int rank(Participant participant, List<String> nameWords, String normalizedFilter, List<String> words) {
+        if (normalize(participant.getName()).startsWith(normalizedFilter)) return RANK_NAME_PREFIX;
+        for (String word : words) {
+            if (!startsWord(nameWords, word)) return RANK_SUBSTRING;
+        }
+        return RANK_WORD_PREFIX;
+    }
+
+    private static boolean startsWord(List<String> nameWords, String word) {
+        for (String nameWord : nameWords) {
+            if (nameWord.startsWith(word)) return true;
+        }
+        return false;
+    }
+
+
+    //==============================================================================================
+    // Normalization
+    //==============================================================================================
+
+    private static String normalize(String s) {
+        return (s == null) ? "" : s.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Splits a name or filter into lowercase words of letters and digits.
+     */
+    private static List<String> words(String s) {
+        String normalized = normalize(s);
+        List<String> words = new ArrayList<String>(2);
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean wordChar = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(normalized.substring(start, i));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    private static Set<String> trigrams(String name) {
+        Set<String> trigrams = new HashSet<String>();
+        for (String word : words(name)) {
+            for (int i = 0; i + 3 <= word.length(); i++) {
+                trigrams.add(word.substring(i, i + 3));
+            }
+        }
+        return trigrams;
+    }
+
+    private static class Node {
+        final Map<Character, Node> mChildren = new HashMap<Character, Node>(4);
+        final Set<String> mIds = new HashSet<String>(2);
+    }
+}
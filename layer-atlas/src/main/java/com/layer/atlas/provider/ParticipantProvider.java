@@ -9,7 +9,11 @@ public interface ParticipantProvider {
     /**
      * Returns a map of all Participants by their unique ID who match the provided `filter`, or
      * all Participants if `filter` is `null`.  If `result` is provided, it is operated on and
-     * returned.  If `result` is `null`, a new Map is created and returned.
+     * returned.  If `result` is `null`, a new Map is created and returned.  May be called from a
+     * background thread.
+     *
+     * AtlasAddressBar shows matches returned in a LinkedHashMap in its iteration order, so
+     * providers can rank matches by relevance, and sorts matches returned in any other Map.
      *
      * @param filter The filter to apply to Participants
      * @param result The Map to operate on
@@ -19,7 +23,7 @@ public interface ParticipantProvider {
 
     /**
      * Returns the Participant with the given ID, or `null` if the participant is not yet
-     * available.
+     * available.  May be called from a background thread.
      *
      * @return The Participant with the given ID, or `null` if not available.
      */
@@ -0,0 +1,101 @@
+package com.layer.atlas.util;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.util.LruCache;
+
+/**
+ * AvatarCache holds finished avatar Bitmaps by participant ID, pixel size, and shape, so avatars
+ * rebound at the same size draw immediately instead of waiting on a Picasso round trip.  Entries
+ * remember the avatar URL they were loaded from and miss once a participant's URL changes.
+ *
+ * Cached Bitmaps are shared with the Picasso memory cache and the views displaying them, so they
+ * are dropped rather than recycled when evicted.
+ */
+public class AvatarCache {
+    private static volatile AvatarCache sDefault;
+
+    private final LruCache<String, Entry> mCache;
+
+    public AvatarCache(int maxBytes) {
+        mCache = new LruCache<String, Entry>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Entry entry) {
+                return entry.mBitmap.getRowBytes() * entry.mBitmap.getHeight();
+            }
+        };
+    }
+
+    /**
+     * Returns the process-wide AvatarCache, sized to 1/32 of the maximum heap.
+     */
+    public static AvatarCache getDefault() {
+        AvatarCache cache = sDefault;
+        if (cache == null) {
+            synchronized (AvatarCache.class) {
+                cache = sDefault;
+                if (cache == null) {
+                    cache = new AvatarCache((int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 32));
+                    sDefault = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Returns the cached avatar for the given participant, URL, size, and shape, or `null`.
+     *
+     * @param participantId Participant the avatar belongs to.
+     * @param url           Avatar URL the participant currently has.
+     * @param size          Avatar width and height in pixels.
+     * @param multi         `true` for the bordered shape used in multi-participant clusters.
+     */
+    public Bitmap get(String participantId, Uri url, int size, boolean multi) {
+        if (participantId == null || url == null) return null;
+        String key = key(participantId, size, multi);
+        Entry entry = mCache.get(key);
+        if (entry == null) return null;
+        if (!url.equals(entry.mUrl) || entry.mBitmap.isRecycled()) {
+            mCache.remove(key);
+            return null;
+        }
+        return entry.mBitmap;
+    }
+
+    /**
+     * Caches a finished avatar for the given participant, URL, size, and shape.
+     */
+    public void put(String participantId, Uri url, int size, boolean multi, Bitmap bitmap) {
+        if (participantId == null || url == null || bitmap == null) return;
+        mCache.put(key(participantId, size, multi), new Entry(url, bitmap));
+    }
+
+    /**
+     * Removes all cached avatars for the given participant, such as after their avatar changes.
+     */
+    public void remove(String participantId) {
+        String prefix = participantId + "\n";
+        for (String key : mCache.snapshot().keySet()) {
+            if (key.startsWith(prefix)) mCache.remove(key);
+        }
+    }
+
+    public void evictAll() {
+        mCache.evictAll();
+    }
+
+    private static String key(String participantId, int size, boolean multi) {
+        return participantId + "\n" + size + (multi ? ".multi" : ".single");
+    }
+
+    private static class Entry {
+        final Uri mUrl;
+        final Bitmap mBitmap;
+
+        Entry(Uri url, Bitmap bitmap) {
+            mUrl = url;
+            mBitmap = bitmap;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.layer.atlas.util;
+
+import android.net.Uri;
+import android.text.Layout;
+import android.text.Spanned;
+
+/**
+ * HeapSize estimates the retained heap size of common objects, for sizing in-memory caches such as
+ * ParsedContentCache.  Estimates follow a 32-bit runtime layout (8-byte object headers, 4-byte
+ * references, 12-byte array headers, and 8-byte alignment), and are computed without allocating so
+ * they can be used freely from ParsedContent.sizeOf().  Callers should compute sizes once and
+ * store them, as ParsedContent is sized each time it is cached.
+ */
+public class HeapSize {
+    public static final int OBJECT_HEADER = 8;
+    public static final int ARRAY_HEADER = 12;
+    public static final int REFERENCE = 4;
+    public static final int INT = 4;
+    public static final int LONG = 8;
+    public static final int DOUBLE = 8;
+
+    // String: header, value reference, and count, offset, and hash fields
+    private static final int STRING = align(OBJECT_HEADER + REFERENCE + 3 * INT);
+
+    // Uri: header, cached string reference, and parsed-part references on hierarchical Uris
+    private static final int URI = align(OBJECT_HEADER + 5 * REFERENCE);
+
+    // SpannableString: header, text and span array references, and span count
+    private static final int SPANNABLE = align(OBJECT_HEADER + 3 * REFERENCE + INT);
+
+    // Per span: the span object, its slot in the span array, and start, end, and flags
+    private static final int SPAN = align(OBJECT_HEADER + REFERENCE) + REFERENCE + 3 * INT;
+
+    // StaticLayout: header, fields, and per-line start, top, descent, and direction columns
+    private static final int LAYOUT = align(OBJECT_HEADER + 24 * REFERENCE);
+    private static final int LAYOUT_LINE = 4 * INT;
+
+    /**
+     * Returns the size of an object with the given bytes of fields, including its header.
+     */
+    public static int object(int fieldBytes) {
+        return align(OBJECT_HEADER + fieldBytes);
+    }
+
+    /**
+     * Returns the size of an array with `length` elements of `elementBytes` each.
+     */
+    public static int array(int length, int elementBytes) {
+        return align(ARRAY_HEADER + length * elementBytes);
+    }
+
+    /**
+     * Returns the size of a String and its char array, or 0 for `null`.
+     */
+    public static int of(String string) {
+        if (string == null) return 0;
+        return STRING + array(string.length(), 2);
+    }
+
+    /**
+     * Returns the size of a Uri and its string form, or 0 for `null`.
+     */
+    public static int of(Uri uri) {
+        if (uri == null) return 0;
+        return URI + of(uri.toString());
+    }
+
+    /**
+     * Returns the size of a Spanned and its spans, excluding its characters, or 0 for `null`.
+     * Spans are counted by their transitions, which may undercount overlapping spans.
+     */
+    public static int of(Spanned spanned) {
+        if (spanned == null) return 0;
+        int spans = 0;
+        int length = spanned.length();
+        for (int i = 0; i < length; i = spanned.nextSpanTransition(i, length, Object.class)) {
+            spans++;
+        }
+        return SPANNABLE + spans * SPAN;
+    }
+
+    /**
+     * Returns the size of a Layout's line structures, excluding its text and paint, or 0 for
+     * `null`.
+     */
+    public static int of(Layout layout) {
+        if (layout == null) return 0;
+        return LAYOUT + array(layout.getLineCount() + 1, LAYOUT_LINE);
+    }
+
+    /**
+     * Returns an estimate of the size of a Layout of `length` characters with about
+     * `charsPerLine` characters per line, for sizing content before it is laid out.
+     */
+    public static int ofLayout(int length, int charsPerLine) {
+        return LAYOUT + array(length / Math.max(1, charsPerLine) + 2, LAYOUT_LINE);
+    }
+
+    private static int align(int bytes) {
+        return (bytes + 7) & ~7;
+    }
+}
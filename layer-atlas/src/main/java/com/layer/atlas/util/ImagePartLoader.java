@@ -0,0 +1,173 @@
+package com.layer.atlas.util;
+
+import android.support.annotation.DrawableRes;
+import android.support.v4.widget.ContentLoadingProgressBar;
+import android.widget.ImageView;
+
+import com.layer.atlas.util.picasso.requesthandlers.MessagePartRequestHandler;
+import com.layer.sdk.messaging.MessagePart;
+import com.squareup.picasso.Callback;
+import com.squareup.picasso.Picasso;
+import com.squareup.picasso.RequestCreator;
+
+/**
+ * ImagePartLoader loads MessagePart images into image cells with Picasso.  Its requests are marked
+ * so MessagePartRequestHandler fails them while content is still downloading, so when a load fails before its
+ * MessagePart is ready, ImagePartLoader waits for the download through MessagePartDownloader and
+ * reloads, unless the Target was rebound or recycled in the meantime.  Loading into a Target or
+ * cancelling it drops its pending download, so a queued download for a cell that scrolled away
+ * does not delay downloads for visible cells.
+ *
+ * Must be used from the UI thread, except prefetch().
+ */
+public class ImagePartLoader {
+    private final MessagePartDownloader mDownloader;
+    private final String mTag;
+    private final String mPrefetchTag;
+    private final int mPlaceholder;
+
+    /**
+     * @param tag         Picasso tag for loads into Targets; prefetches use this tag with a
+     *                    ".prefetch" suffix.
+     * @param placeholder Drawable shown while loading.
+     */
+    public ImagePartLoader(MessagePartDownloader downloader, String tag, @DrawableRes int placeholder) {
+        mDownloader = downloader;
+        mTag = tag;
+        mPrefetchTag = tag + ".prefetch";
+        mPlaceholder = placeholder;
+    }
+
+    /**
+     * Loads the image into the given Target, showing its progress bar until loaded, and reloads
+     * once the given MessagePart downloads if it was not ready.  `part` may be `null` when there
+     * is nothing to wait for.
+     */
+    public void load(Target target, MessagePart part, RequestFactory factory) {
+        cancel(target);
+        target.mProgressBar.show();
+        into(target, part, factory);
+    }
+
+    /**
+     * Cancels the Target's pending download, such as when its cell is recycled.
+     */
+    public void cancel(Target target) {
+        if (target.mDownloadCallback == null) return;
+        mDownloader.cancel(target.mDownloadPart, target.mDownloadCallback);
+        target.mDownloadPart = null;
+        target.mDownloadCallback = null;
+    }
+
+    /**
+     * Warms the Picasso memory cache with the image, downloading the MessagePart first at
+     * PREFETCH priority if needed.  Returns the number of bytes to download.
+     */
+    public int prefetch(final MessagePart part, final RequestFactory factory) {
+        if (part.isContentReady()) {
+            fetch(part, factory);
+            return 0;
+        }
+        mDownloader.download(part, MessagePartDownloader.Priority.PREFETCH, new MessagePartDownloader.Callback() {
+            @Override
+            public void onDownloadComplete(MessagePart part, boolean success) {
+                if (success) fetch(part, factory);
+            }
+        });
+        return (int) part.getSize();
+    }
+
+    private void fetch(MessagePart part, RequestFactory factory) {
+        newRequest(part, factory).tag(mPrefetchTag).priority(Picasso.Priority.LOW).fetch();
+    }
+
+    private void into(final Target target, final MessagePart part, final RequestFactory factory) {
+        newRequest(part, factory).tag(mTag).placeholder(mPlaceholder).into(target.mImageView, new Callback() {
+            @Override
+            public void onSuccess() {
+                target.mProgressBar.hide();
+            }
+
+            @Override
+            public void onError() {
+                if (part == null || part.isContentReady()) {
+                    target.mProgressBar.hide();
+                    return;
+                }
+                ReloadCallback callback = new ReloadCallback(target, part, factory);
+                target.mDownloadPart = part;
+                target.mDownloadCallback = callback;
+                if (mDownloader.download(part, MessagePartDownloader.Priority.VISIBLE, callback)) {
+                    callback.onDownloadComplete(part, true);
+                }
+            }
+        });
+    }
+
+    private static RequestCreator newRequest(MessagePart part, RequestFactory factory) {
+        RequestCreator request = factory.newRequest();
+        // Loads and prefetches share the key, and so the memory cache entry
+        if (part != null) request.stableKey(MessagePartRequestHandler.getRetryableKey(part.getId()));
+        return request;
+    }
+
+    /**
+     * Creates a new Picasso request for an image each time it is loaded.  Binding and prefetching
+     * should share requests so prefetched images hit the Picasso memory cache.
+     */
+    public interface RequestFactory {
+        RequestCreator newRequest();
+    }
+
+    /**
+     * Target holds an image cell's views and its pending download.  Create one per cell.
+     */
+    public static class Target {
+        final ImageView mImageView;
+        final ContentLoadingProgressBar mProgressBar;
+
+        // Pending download, if the image was not ready when loaded
+        MessagePart mDownloadPart;
+        MessagePartDownloader.Callback mDownloadCallback;
+
+        public Target(ImageView imageView, ContentLoadingProgressBar progressBar) {
+            mImageView = imageView;
+            mProgressBar = progressBar;
+        }
+    }
+
+    /**
+     * Reloads a Target's image on the main thread once its download completes, unless the Target
+     * was loaded again or cancelled first.
+     */
+    private class ReloadCallback implements MessagePartDownloader.Callback, Runnable {
+        private final Target mTarget;
+        private final MessagePart mPart;
+        private final RequestFactory mFactory;
+        private volatile boolean mSuccess;
+
+        ReloadCallback(Target target, MessagePart part, RequestFactory factory) {
+            mTarget = target;
+            mPart = part;
+            mFactory = factory;
+        }
+
+        @Override
+        public void onDownloadComplete(MessagePart part, boolean success) {
+            mSuccess = success;
+            mTarget.mImageView.post(this);
+        }
+
+        @Override
+        public void run() {
+            if (mTarget.mDownloadCallback != this) return;
+            mTarget.mDownloadPart = null;
+            mTarget.mDownloadCallback = null;
+            if (mSuccess) {
+                into(mTarget, mPart, mFactory);
+            } else {
+                mTarget.mProgressBar.hide();
+            }
+        }
+    }
+}
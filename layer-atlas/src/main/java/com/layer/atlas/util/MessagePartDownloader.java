@@ -0,0 +1,296 @@
+package com.layer.atlas.util;
+
+import android.net.Uri;
+
+import com.layer.sdk.LayerClient;
+import com.layer.sdk.listeners.LayerProgressListener;
+import com.layer.sdk.messaging.MessagePart;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.WeakHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MessagePartDownloader schedules MessagePart downloads for a LayerClient.  Concurrent requests
+ * for the same MessagePart share a single download, and a single LayerProgressListener registered
+ * for all MessageParts completes every waiter asynchronously, so callers never need to hold a
+ * thread while content downloads.
+ *
+ * At most `maxConcurrent` downloads run at once.  Further requests wait in a queue ordered by
+ * Priority, then by request order, so on a slow network visible content finishes before
+ * prefetched or off-screen content competes for bandwidth.  Requesting a queued MessagePart again
+ * at a higher Priority raises its place in the queue, and queued downloads are dropped once every
+ * waiter has cancelled.  Downloads already started run to completion.
+ */
+public class MessagePartDownloader {
+    public static final int DEFAULT_MAX_CONCURRENT = 3;
+
+    private static final Map<LayerClient, MessagePartDownloader> sInstances = new WeakHashMap<LayerClient, MessagePartDownloader>();
+
+    /**
+     * Download priorities, highest first.
+     */
+    public enum Priority {
+        // Content for cells on screen
+        VISIBLE,
+        // Content for cells about to scroll on screen
+        PREFETCH,
+        // Full-resolution content for the image popup
+        POPUP,
+        // Content for Messages not being displayed, such as synced history
+        BACKGROUND
+    }
+
+    // Queued and in-flight downloads by MessagePart ID
+    private final Map<Uri, Download> mDownloads = new HashMap<Uri, Download>();
+    private final PriorityQueue<Download> mQueue = new PriorityQueue<Download>();
+    private int mMaxConcurrent = DEFAULT_MAX_CONCURRENT;
+    private int mActive = 0;
+    private long mSequence = 0;
+
+    private final LayerProgressListener mListener = new LayerProgressListener.BackgroundThread() {
+        @Override
+        public void onProgressStart(MessagePart messagePart, Operation operation) {
+
+        }
+
+        @Override
+        public void onProgressUpdate(MessagePart messagePart, Operation operation, long l) {
+
+        }
+
+        @Override
+        public void onProgressComplete(MessagePart messagePart, Operation operation) {
+            if (operation == Operation.DOWNLOAD) complete(messagePart, true);
+        }
+
+        @Override
+        public void onProgressError(MessagePart messagePart, Operation operation, Throwable throwable) {
+            if (operation == Operation.DOWNLOAD) complete(messagePart, messagePart.isContentReady());
+        }
+    };
+
+    private MessagePartDownloader(LayerClient layerClient) {
+        layerClient.registerProgressListener(null, mListener);
+    }
+
+    /**
+     * Returns the MessagePartDownloader for the given LayerClient.
+     */
+    public static synchronized MessagePartDownloader getInstance(LayerClient layerClient) {
+        MessagePartDownloader downloader = sInstances.get(layerClient);
+        if (downloader == null) {
+            downloader = new MessagePartDownloader(layerClient);
+            sInstances.put(layerClient, downloader);
+        }
+        return downloader;
+    }
+
+    /**
+     * Sets the maximum number of MessageParts downloading at once.
+     */
+    public MessagePartDownloader setMaxConcurrent(int maxConcurrent) {
+        List<Download> started;
+        synchronized (mDownloads) {
+            mMaxConcurrent = Math.max(1, maxConcurrent);
+            started = pollStartable();
+        }
+        start(started);
+        return this;
+    }
+
+    public int getMaxConcurrent() {
+        synchronized (mDownloads) {
+            return mMaxConcurrent;
+        }
+    }
+
+    /**
+     * Downloads the given MessagePart at VISIBLE priority.
+     *
+     * @see #download(MessagePart, Priority, Callback)
+     */
+    public boolean download(MessagePart part, Callback callback) {
+        return download(part, Priority.VISIBLE, callback);
+    }
+
+    /**
+     * Downloads the given MessagePart if its content is not ready, joining any download already
+     * queued or in progress for it.  The callback is called on a background thread once the
+     * download completes or fails, or not at all if the content is already ready or the callback
+     * is cancelled first.
+     *
+     * @param part     MessagePart to download.
+     * @param priority Priority of this request.
+     * @param callback Callback for download completion, or `null`.
+     * @return `true` if the content is already ready, or `false` if it is downloading.
+     * @see #cancel(MessagePart, Callback)
+     */
+    public boolean download(MessagePart part, Priority priority, Callback callback) {
+        if (part.isContentReady()) return true;
+        List<Download> started;
+        synchronized (mDownloads) {
+            Download download = mDownloads.get(part.getId());
+            if (download == null) {
+                download = new Download(part, priority, mSequence++);
+                mDownloads.put(part.getId(), download);
+                mQueue.add(download);
+            } else if (!download.mStarted && priority.ordinal() < download.mPriority.ordinal()) {
+                // Re-insert to move up the queue
+                mQueue.remove(download);
+                download.mPriority = priority;
+                mQueue.add(download);
+            }
+            if (callback != null) download.mCallbacks.add(callback);
+            started = pollStartable();
+        }
+        start(started);
+
+        // The download may have completed before we started waiting on it
+        if (part.isContentReady()) {
+            complete(part, true);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes a callback registered with download().  If the MessagePart is still queued and no
+     * callbacks remain, its download is dropped from the queue.
+     *
+     * @param part     MessagePart the callback was registered for.
+     * @param callback Callback to remove.
+     */
+    public void cancel(MessagePart part, Callback callback) {
+        synchronized (mDownloads) {
+            Download download = mDownloads.get(part.getId());
+            if (download == null) return;
+            download.mCallbacks.remove(callback);
+            if (download.mStarted || !download.mCallbacks.isEmpty()) return;
+            mQueue.remove(download);
+            mDownloads.remove(part.getId());
+        }
+    }
+
+    /**
+     * Returns `true` if the given MessagePart is queued or downloading through this downloader.
+     */
+    public boolean isDownloading(MessagePart part) {
+        synchronized (mDownloads) {
+            return mDownloads.containsKey(part.getId());
+        }
+    }
+
+    /**
+     * Downloads the given MessagePart at the given priority and waits for its content to become
+     * ready.  Only for callers that must produce content synchronously on their own background
+     * thread, such as image decoders; the wait still shares the download with all other requests.
+     *
+     * @param part     MessagePart to download.
+     * @param priority Priority of this request.
+     * @param timeout  Maximum time to wait.
+     * @param timeUnit Unit of `timeout`.
+     * @return `true` if the content is ready, or `false` if the download failed or timed out.
+     */
+    public boolean await(MessagePart part, Priority priority, long timeout, TimeUnit timeUnit) {
+        final CountDownLatch latch = new CountDownLatch(1);
+        Callback callback = new Callback() {
+            @Override
+            public void onDownloadComplete(MessagePart part, boolean success) {
+                latch.countDown();
+            }
+        };
+        if (download(part, priority, callback)) return true;
+        try {
+            latch.await(timeout, timeUnit);
+        } catch (InterruptedException e) {
+            if (Log.isLoggable(Log.ERROR)) {
+                Log.e(e.getMessage(), e);
+            }
+        }
+        cancel(part, callback);
+        return part.isContentReady();
+    }
+
+    private void complete(MessagePart part, boolean success) {
+        Download download;
+        List<Download> started;
+        synchronized (mDownloads) {
+            download = mDownloads.remove(part.getId());
+            if (download == null) return;
+            if (download.mStarted) {
+                mActive--;
+            } else {
+                // Downloaded outside this downloader while queued
+                mQueue.remove(download);
+            }
+            started = pollStartable();
+        }
+        start(started);
+        for (Callback callback : download.mCallbacks) {
+            callback.onDownloadComplete(part, success);
+        }
+    }
+
+    /**
+     * Takes as many queued downloads as the concurrency cap allows and marks them started.  Must
+     * be called while synchronized on mDownloads.
+     */
+    private List<Download> pollStartable() {
+        List<Download> started = null;
+        while (mActive < mMaxConcurrent && !mQueue.isEmpty()) {
+            Download download = mQueue.poll();
+            download.mStarted = true;
+            mActive++;
+            if (started == null) started = new ArrayList<Download>(2);
+            started.add(download);
+        }
+        return started;
+    }
+
+    private void start(List<Download> started) {
+        if (started == null) return;
+        for (Download download : started) {
+            if (Log.isLoggable(Log.VERBOSE)) {
+                Log.v("Downloading " + download.mPart.getId() + " at " + download.mPriority);
+            }
+            download.mPart.download(null);
+        }
+    }
+
+    private static class Download implements Comparable<Download> {
+        final MessagePart mPart;
+        final long mSequence;
+        final List<Callback> mCallbacks = new ArrayList<Callback>(2);
+        Priority mPriority;
+        boolean mStarted = false;
+
+        Download(MessagePart part, Priority priority, long sequence) {
+            mPart = part;
+            mPriority = priority;
+            mSequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Download another) {
+            int priority = mPriority.compareTo(another.mPriority);
+            if (priority != 0) return priority;
+            return (mSequence < another.mSequence) ? -1 : ((mSequence == another.mSequence) ? 0 : 1);
+        }
+    }
+
+    public interface Callback {
+        /**
+         * Called on a background thread when a MessagePart download completes or fails.
+         *
+         * @param part    The downloaded MessagePart.
+         * @param success `true` if the MessagePart content is ready.
+         */
+        void onDownloadComplete(MessagePart part, boolean success);
+    }
+}
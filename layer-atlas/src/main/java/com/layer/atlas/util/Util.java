@@ -22,17 +22,19 @@ import android.net.Uri;
 
 import com.layer.atlas.BuildConfig;
 import com.layer.atlas.R;
+import com.layer.atlas.messagetypes.MimeTypeDispatcher;
+import com.layer.atlas.messagetypes.ParsedContentCache;
 import com.layer.atlas.messagetypes.generic.GenericCellFactory;
 import com.layer.atlas.messagetypes.location.LocationCellFactory;
 import com.layer.atlas.messagetypes.singlepartimage.SinglePartImageCellFactory;
 import com.layer.atlas.messagetypes.text.TextCellFactory;
 import com.layer.atlas.messagetypes.threepartimage.ThreePartImageCellFactory;
+import com.layer.atlas.provider.BatchParticipantProvider;
 import com.layer.atlas.provider.Participant;
 import com.layer.atlas.provider.ParticipantProvider;
 import com.layer.sdk.LayerClient;
 import com.layer.sdk.exceptions.LayerException;
 import com.layer.sdk.listeners.LayerAuthenticationListener;
-import com.layer.sdk.listeners.LayerProgressListener;
 import com.layer.sdk.messaging.Conversation;
 import com.layer.sdk.messaging.Message;
 import com.layer.sdk.messaging.MessagePart;
@@ -41,9 +43,12 @@ import com.layer.sdk.query.Queryable;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.CountDownLatch;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -52,6 +57,12 @@ public class Util {
     private static final int TIME_HOURS_24 = 24 * 60 * 60 * 1000;
     private static final SimpleDateFormat DAY_OF_WEEK = new SimpleDateFormat("EEE, LLL dd,", Locale.US);
 
+    // Last message previews for built-in types, in precedence order
+    private static final int PREVIEW_TEXT = 0;
+    private static final int PREVIEW_THREE_PART_IMAGE = 1;
+    private static final int PREVIEW_LOCATION = 2;
+    private static final MimeTypeDispatcher PREVIEW_DISPATCHER = newPreviewDispatcher();
+
     /**
      * Returns the app version name.
      *
@@ -71,16 +82,14 @@ public class Util {
         manager.setPrimaryClip(clipData);
     }
 
-    // TODO: base this on registered types
     public static String getLastMessageString(Context context, Message message) {
-        if (TextCellFactory.isType(message)) {
-            return TextCellFactory.getMessagePreview(context, message);
-        }
-        if (ThreePartImageCellFactory.isType(message)) {
-            return ThreePartImageCellFactory.getMessagePreview(context, message);
-        }
-        if (LocationCellFactory.isType(message)) {
-            return LocationCellFactory.getMessagePreview(context, message);
+        switch (PREVIEW_DISPATCHER.find(message)) {
+            case PREVIEW_TEXT:
+                return TextCellFactory.getMessagePreview(context, message);
+            case PREVIEW_THREE_PART_IMAGE:
+                return ThreePartImageCellFactory.getMessagePreview(context, message);
+            case PREVIEW_LOCATION:
+                return LocationCellFactory.getMessagePreview(context, message);
         }
         if (SinglePartImageCellFactory.isType(message)) {
             return SinglePartImageCellFactory.getMessagePreview(context, message);
@@ -88,23 +97,56 @@ public class Util {
         return GenericCellFactory.getPreview(context, message);
     }
 
+    private static MimeTypeDispatcher newPreviewDispatcher() {
+        MimeTypeDispatcher dispatcher = new MimeTypeDispatcher();
+        for (String[] signature : TextCellFactory.MIME_TYPE_SIGNATURES) {
+            dispatcher.add(signature, PREVIEW_TEXT);
+        }
+        for (String[] signature : ThreePartImageCellFactory.MIME_TYPE_SIGNATURES) {
+            dispatcher.add(signature, PREVIEW_THREE_PART_IMAGE);
+        }
+        for (String[] signature : LocationCellFactory.MIME_TYPE_SIGNATURES) {
+            dispatcher.add(signature, PREVIEW_LOCATION);
+        }
+        return dispatcher;
+    }
+
     public static String getConversationTitle(LayerClient client, ParticipantProvider provider, Conversation conversation) {
         String metadataTitle = getConversationMetadataTitle(conversation);
         if (metadataTitle != null) return metadataTitle.trim();
 
         StringBuilder sb = new StringBuilder();
         String userId = client.getAuthenticatedUserId();
-        for (String participantId : conversation.getParticipants()) {
+        List<String> participantIds = conversation.getParticipants();
+        Map<String, Participant> participants = getParticipants(provider, participantIds, null);
+        for (String participantId : participantIds) {
             if (participantId.equals(userId)) continue;
-            Participant participant = provider.getParticipant(participantId);
+            Participant participant = participants.get(participantId);
             if (participant == null) continue;
-            String initials = conversation.getParticipants().size() > 2 ? getInitials(participant) : participant.getName();
+            String initials = participantIds.size() > 2 ? getInitials(participant) : participant.getName();
             if (sb.length() > 0) sb.append(", ");
             sb.append(initials);
         }
         return sb.toString().trim();
     }
 
+    /**
+     * Returns a map of the available Participants with the given IDs, keyed by ID.  Looks up all
+     * IDs in one call if `provider` is a BatchParticipantProvider, and one at a time otherwise.  If
+     * `result` is `null`, a new Map is created and returned.
+     */
+    public static Map<String, Participant> getParticipants(ParticipantProvider provider, Collection<String> participantIds, Map<String, Participant> result) {
+        if (provider instanceof BatchParticipantProvider) {
+            return ((BatchParticipantProvider) provider).getParticipants(participantIds, result);
+        }
+        if (result == null) result = new HashMap<String, Participant>(participantIds.size());
+        for (String participantId : participantIds) {
+            Participant participant = provider.getParticipant(participantId);
+            if (participant != null) result.put(participantId, participant);
+        }
+        return result;
+    }
+
     public static String getConversationMetadataTitle(Conversation conversation) {
         String metadataTitle = (String) conversation.getMetadata().get(METADATA_KEY_CONVERSATION_TITLE);
         if (metadataTitle != null && !metadataTitle.trim().isEmpty()) return metadataTitle.trim();
@@ -229,59 +271,28 @@ public class Util {
     /**
      * Synchronously starts downloading the given MessagePart and waits for downloading to complete.
      * Returns `true` if the MessagePart downloaded successfully within the given period of time, or
-     * `false` otherwise.
+     * `false` otherwise.  The download is shared with any other request for the same MessagePart.
      *
      * @param layerClient LayerClient to download the MessagePart with.
      * @param part        MessagePart to download.
      * @param timeLength  Length of time to wait for downloading.
      * @param timeUnit    Unit of time to wait for downloading.
      * @return `true` if the MessagePart content is available, or `false` otherwise.
+     * @see MessagePartDownloader
      */
     public static boolean downloadMessagePart(LayerClient layerClient, MessagePart part, int timeLength, TimeUnit timeUnit) {
-        if (part.isContentReady()) return true;
-
-        final CountDownLatch latch = new CountDownLatch(1);
-        final LayerProgressListener listener = new LayerProgressListener.BackgroundThread.Weak() {
-            @Override
-            public void onProgressStart(MessagePart messagePart, Operation operation) {
-
-            }
-
-            @Override
-            public void onProgressUpdate(MessagePart messagePart, Operation operation, long l) {
-
-            }
-
-            @Override
-            public void onProgressComplete(MessagePart messagePart, Operation operation) {
-                latch.countDown();
-            }
-
-            @Override
-            public void onProgressError(MessagePart messagePart, Operation operation, Throwable throwable) {
-                latch.countDown();
-            }
-        };
-        part.download(listener);
-        if (!part.isContentReady()) {
-            try {
-                latch.await(timeLength, timeUnit);
-            } catch (InterruptedException e) {
-                if (Log.isLoggable(Log.ERROR)) {
-                    Log.e(e.getMessage(), e);
-                }
-            }
-        }
-        return part.isContentReady();
+        return MessagePartDownloader.getInstance(layerClient).await(part, MessagePartDownloader.Priority.VISIBLE, timeLength, timeUnit);
     }
 
     /**
-     * Asynchronously deauthenticates with Layer.
+     * Asynchronously deauthenticates with Layer.  Parsed Message content cached in memory and on
+     * disk by the default ParsedContentCache is cleared first, so it is not left for the next user.
      *
      * @param layerClient LayerClient to deauthenticate.
      * @param callback    Callback to report deauthentication success and failure.
      */
     public static void deauthenticate(LayerClient layerClient, final DeauthenticationCallback callback) {
+        ParsedContentCache.getDefault().clear();
         final AtomicBoolean alerted = new AtomicBoolean(false);
         final LayerAuthenticationListener listener = new LayerAuthenticationListener.BackgroundThread() {
             @Override
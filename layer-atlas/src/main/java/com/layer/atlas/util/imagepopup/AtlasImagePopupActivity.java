@@ -2,6 +2,7 @@ package com.layer.atlas.util.imagepopup;
 
 import android.app.Activity;
 import android.content.Intent;
+import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.widget.ContentLoadingProgressBar;
@@ -16,6 +17,8 @@ import com.layer.sdk.LayerClient;
 import com.layer.sdk.listeners.LayerProgressListener;
 import com.layer.sdk.messaging.MessagePart;
 
+import java.lang.ref.WeakReference;
+
 /**
  * AtlasImagePopupActivity implements a ful resolution image viewer Activity.  This Activity
  * registers with the LayerClient as a LayerProgressListener to monitor progress.
@@ -23,6 +26,10 @@ import com.layer.sdk.messaging.MessagePart;
 public class AtlasImagePopupActivity extends Activity implements LayerProgressListener.BackgroundThread.Weak, SubsamplingScaleImageView.OnImageEventListener {
     private static LayerClient sLayerClient;
 
+    // Preview already decoded by the cell that opened this popup
+    private static Uri sPreviewId;
+    private static WeakReference<Bitmap> sPreview;
+
     private SubsamplingScaleImageView mImageView;
     private ContentLoadingProgressBar mProgressBar;
     private Uri mMessagePartId;
@@ -57,7 +64,7 @@ public class AtlasImagePopupActivity extends Activity implements LayerProgressLi
                     mImageView.setOrientation(SubsamplingScaleImageView.ORIENTATION_0);
                     mImageView.setImage(
                             ImageSource.uri(mMessagePartId).dimensions(info.width, info.height),
-                            ImageSource.uri(previewId));
+                            getPreviewSource(previewId));
                     break;
                 case ThreePartImageUtils.ORIENTATION_90:
                     mImageView.setOrientation(SubsamplingScaleImageView.ORIENTATION_270);
@@ -103,6 +110,27 @@ public class AtlasImagePopupActivity extends Activity implements LayerProgressLi
         MessagePartRegionDecoder.init(layerClient);
     }
 
+    /**
+     * Shares a preview Bitmap already decoded for display, such as by a message cell, so the popup
+     * can show it while the full image loads instead of decoding the preview MessagePart again.
+     * The Bitmap must be unrotated, and is not recycled by the popup.
+     *
+     * @param previewId ID of the preview MessagePart the Bitmap was decoded from.
+     * @param preview   Decoded preview Bitmap.
+     */
+    public static void setPreview(Uri previewId, Bitmap preview) {
+        sPreviewId = previewId;
+        sPreview = new WeakReference<Bitmap>(preview);
+    }
+
+    private static ImageSource getPreviewSource(Uri previewId) {
+        Bitmap preview = (sPreview == null) ? null : sPreview.get();
+        if (preview == null || preview.isRecycled() || !previewId.equals(sPreviewId)) {
+            return ImageSource.uri(previewId);
+        }
+        return ImageSource.cachedBitmap(preview);
+    }
+
 
     //==============================================================================================
     // SubsamplingScaleImageView.OnImageEventListener: hide progress bar when full part loaded
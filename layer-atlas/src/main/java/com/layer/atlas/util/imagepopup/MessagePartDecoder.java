@@ -7,7 +7,7 @@ import android.net.Uri;
 
 import com.davemorrissey.labs.subscaleview.decoder.ImageDecoder;
 import com.layer.atlas.util.Log;
-import com.layer.atlas.util.Util;
+import com.layer.atlas.util.MessagePartDownloader;
 import com.layer.sdk.LayerClient;
 import com.layer.sdk.messaging.MessagePart;
 
@@ -35,7 +35,7 @@ public class MessagePartDecoder implements ImageDecoder {
             }
             return null;
         }
-        if (!Util.downloadMessagePart(sLayerClient, part, 3, TimeUnit.MINUTES)) {
+        if (!MessagePartDownloader.getInstance(sLayerClient).await(part, MessagePartDownloader.Priority.POPUP, 3, TimeUnit.MINUTES)) {
             if (Log.isLoggable(Log.ERROR)) {
                 Log.e("Timed out while downloading: " + messagePartId);
             }
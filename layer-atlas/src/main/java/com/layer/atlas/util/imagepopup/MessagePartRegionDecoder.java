@@ -10,7 +10,7 @@ import android.net.Uri;
 
 import com.davemorrissey.labs.subscaleview.decoder.ImageRegionDecoder;
 import com.layer.atlas.util.Log;
-import com.layer.atlas.util.Util;
+import com.layer.atlas.util.MessagePartDownloader;
 import com.layer.sdk.LayerClient;
 import com.layer.sdk.messaging.MessagePart;
 
@@ -43,7 +43,7 @@ public class MessagePartRegionDecoder implements ImageRegionDecoder {
         }
 
         mMessagePart = part;
-        if (!Util.downloadMessagePart(sLayerClient, mMessagePart, 3, TimeUnit.MINUTES)) {
+        if (!MessagePartDownloader.getInstance(sLayerClient).await(mMessagePart, MessagePartDownloader.Priority.POPUP, 3, TimeUnit.MINUTES)) {
             if (Log.isLoggable(Log.ERROR)) {
                 Log.e("Timed out while downloading: " + messagePartId);
             }
@@ -2,11 +2,11 @@ package com.layer.atlas.util.picasso.requesthandlers;
 
 import android.net.Uri;
 
-import com.layer.atlas.util.Log;
-import com.layer.atlas.util.Util;
+import com.layer.atlas.util.MessagePartDownloader;
 import com.layer.sdk.LayerClient;
 import com.layer.sdk.messaging.MessagePart;
 import com.layer.sdk.query.Queryable;
+import com.squareup.picasso.Picasso;
 import com.squareup.picasso.Request;
 
 import java.io.IOException;
@@ -17,14 +17,34 @@ import static com.squareup.picasso.Picasso.LoadedFrom;
 
 /**
  * Handles Picasso load requests for Layer MessagePart content.  If the content is not ready
- * (e.g. MessagePart.isContentReady() is `false`), registers a LayerProgressListener, downloads
- * the part, and waits for completion.
+ * (e.g. MessagePart.isContentReady() is `false`), downloads the part through the shared
+ * MessagePartDownloader and waits up to three minutes for it.  Requests marked with
+ * getRetryableKey() instead fail immediately, so they do not hold a Picasso worker thread while
+ * downloading; their callers must reload once the download completes, using
+ * MessagePartDownloader.download(MessagePart, Callback), as ImagePartLoader does.
  */
 public class MessagePartRequestHandler extends com.squareup.picasso.RequestHandler {
+    private static final String RETRYABLE_KEY_PREFIX = "atlas-retryable:";
+    private static final long DOWNLOAD_TIMEOUT_MINUTES = 3;
+
     private final LayerClient mLayerClient;
+    private final MessagePartDownloader mDownloader;
 
     public MessagePartRequestHandler(LayerClient layerClient) {
         mLayerClient = layerClient;
+        mDownloader = MessagePartDownloader.getInstance(layerClient);
+    }
+
+    /**
+     * Returns a Picasso stable key that marks requests for the given MessagePart as retried by the
+     * caller once downloaded.  Use it for every request of the same image, via
+     * RequestCreator.stableKey(), so they share a memory cache key.
+     *
+     * @param partId ID of the MessagePart the request loads.
+     * @return The stable key for the request.
+     */
+    public static String getRetryableKey(Uri partId) {
+        return RETRYABLE_KEY_PREFIX + partId;
     }
 
     @Override
@@ -43,7 +63,18 @@ public class MessagePartRequestHandler extends com.squareup.picasso.RequestHandl
         if (!(queryable instanceof MessagePart)) return null;
         MessagePart part = (MessagePart) queryable;
         if (part.isContentReady()) return new Result(part.getDataStream(), LoadedFrom.DISK);
-        if (!Util.downloadMessagePart(mLayerClient, part, 3, TimeUnit.MINUTES)) return null;
+        // Low-priority Picasso requests are prefetches
+        MessagePartDownloader.Priority priority = (request.priority == Picasso.Priority.LOW) ?
+                MessagePartDownloader.Priority.PREFETCH : MessagePartDownloader.Priority.VISIBLE;
+        if (isRetryable(request)) {
+            if (mDownloader.download(part, priority, null)) return new Result(part.getDataStream(), LoadedFrom.NETWORK);
+            throw new IOException("Content not ready: " + request.uri);
+        }
+        if (!mDownloader.await(part, priority, DOWNLOAD_TIMEOUT_MINUTES, TimeUnit.MINUTES)) return null;
         return new Result(part.getDataStream(), LoadedFrom.NETWORK);
     }
+
+    private static boolean isRetryable(Request request) {
+        return request.stableKey != null && request.stableKey.startsWith(RETRYABLE_KEY_PREFIX);
+    }
 }
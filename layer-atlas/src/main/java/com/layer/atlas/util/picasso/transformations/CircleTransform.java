@@ -1,16 +1,9 @@
 package com.layer.atlas.util.picasso.transformations;
 
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
-import android.graphics.PorterDuff;
-import android.graphics.PorterDuffXfermode;
-import android.graphics.Rect;
+import android.graphics.Path;
+import android.graphics.RectF;
 
-import com.squareup.picasso.Transformation;
-
-public class CircleTransform implements Transformation {
+public class CircleTransform extends ShapeTransform {
     private final String mKey;
 
     public CircleTransform(String key) {
@@ -18,25 +11,9 @@ public class CircleTransform implements Transformation {
     }
 
     @Override
-    public Bitmap transform(Bitmap source) {
-        int srcWidth = source.getWidth();
-        int srcHeight = source.getHeight();
-        float srcRadius = (float) Math.min(srcWidth, srcHeight) / 2f;
-        Bitmap out = Bitmap.createBitmap(srcWidth, srcHeight, Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(out);
-        final Paint paint = new Paint();
-        final Rect rect = new Rect(0, 0, out.getWidth(), out.getHeight());
-
-        paint.setAntiAlias(true);
-        paint.setFilterBitmap(true);
-        paint.setDither(true);
-        canvas.drawARGB(0, 0, 0, 0);
-        paint.setColor(Color.WHITE);
-        canvas.drawCircle(srcRadius, srcRadius, srcRadius, paint);
-        paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC_IN));
-        canvas.drawBitmap(source, rect, rect, paint);
-        source.recycle();
-        return out;
+    void addShape(Path path, RectF bounds) {
+        float radius = Math.min(bounds.width(), bounds.height()) / 2f;
+        path.addCircle(radius, radius, radius, Path.Direction.CW);
     }
 
     @Override
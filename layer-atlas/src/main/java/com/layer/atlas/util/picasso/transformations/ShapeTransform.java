@@ -0,0 +1,64 @@
+package com.layer.atlas.util.picasso.transformations;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+import android.graphics.Shader;
+
+import com.squareup.picasso.Transformation;
+
+/**
+ * ShapeTransform masks Bitmaps to a shape without intermediate Bitmaps, by drawing the source once
+ * through a BitmapShader into the output Bitmap.
+ *
+ * Canvases, Paints, and Paths are reused per Picasso worker thread.
+ */
+abstract class ShapeTransform implements Transformation {
+    private static final ThreadLocal<Drawing> sDrawing = new ThreadLocal<Drawing>() {
+        @Override
+        protected Drawing initialValue() {
+            return new Drawing();
+        }
+    };
+
+    /**
+     * Adds this transformation's shape for a Bitmap with the given bounds to the given Path.
+     */
+    abstract void addShape(Path path, RectF bounds);
+
+    @Override
+    public Bitmap transform(Bitmap source) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        Drawing drawing = sDrawing.get();
+        Path path = drawing.mPath;
+        Canvas canvas = drawing.mCanvas;
+        RectF bounds = drawing.mBounds;
+        bounds.set(0, 0, width, height);
+        path.reset();
+
+        // Fill the shape with the source
+        path.setFillType(Path.FillType.WINDING);
+        addShape(path, bounds);
+        Bitmap out = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Paint paint = drawing.mShaderPaint;
+        paint.setShader(new BitmapShader(source, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP));
+        canvas.setBitmap(out);
+        canvas.drawPath(path, paint);
+        canvas.setBitmap(null);
+        paint.setShader(null);
+        // Picasso requires transformations returning a new Bitmap to recycle their input
+        source.recycle();
+        return out;
+    }
+
+    private static class Drawing {
+        final Canvas mCanvas = new Canvas();
+        final Path mPath = new Path();
+        final RectF mBounds = new RectF();
+        final Paint mShaderPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
+    }
+}
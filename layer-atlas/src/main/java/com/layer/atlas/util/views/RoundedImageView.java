@@ -0,0 +1,101 @@
+package com.layer.atlas.util.views;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Shader;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.util.AttributeSet;
+import android.widget.ImageView;
+
+/**
+ * RoundedImageView rounds the corners of its Bitmap content while drawing, rather than requiring a
+ * rounded copy of the Bitmap.  The same decoded Bitmap can then be cached once and shared with
+ * other views, such as the image popup and shared element transitions.  Content that is not a
+ * BitmapDrawable, such as placeholders, is drawn as-is.
+ */
+public class RoundedImageView extends ImageView {
+    private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
+    private final Matrix mShaderMatrix = new Matrix();
+    private final RectF mDrawBounds = new RectF();
+
+    private float mCornerRadius = 0;
+    private Bitmap mShaderBitmap;
+    private BitmapShader mShader;
+
+    public RoundedImageView(Context context) {
+        super(context);
+    }
+
+    public RoundedImageView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    public RoundedImageView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+    }
+
+    public RoundedImageView setCornerRadius(float cornerRadius) {
+        mCornerRadius = cornerRadius;
+        invalidate();
+        return this;
+    }
+
+    public float getCornerRadius() {
+        return mCornerRadius;
+    }
+
+    @Override
+    public void setImageDrawable(Drawable drawable) {
+        super.setImageDrawable(drawable);
+        // Called from the ImageView constructor, before fields are initialized
+        if (mPaint == null) return;
+        mShaderBitmap = null;
+        mShader = null;
+        mPaint.setShader(null);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        Drawable drawable = getDrawable();
+        if (mCornerRadius <= 0f || !(drawable instanceof BitmapDrawable)) {
+            super.onDraw(canvas);
+            return;
+        }
+        Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+        if (bitmap == null || bitmap.isRecycled() || bitmap.getWidth() == 0 || bitmap.getHeight() == 0) {
+            super.onDraw(canvas);
+            return;
+        }
+        if (bitmap != mShaderBitmap) {
+            mShaderBitmap = bitmap;
+            mShader = new BitmapShader(bitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+            mPaint.setShader(mShader);
+        }
+
+        // Map Bitmap pixels through the drawable bounds and image matrix, as ImageView draws them
+        Rect bounds = drawable.getBounds();
+        Matrix imageMatrix = getImageMatrix();
+        mShaderMatrix.setScale((float) bounds.width() / bitmap.getWidth(), (float) bounds.height() / bitmap.getHeight());
+        mShaderMatrix.postTranslate(bounds.left, bounds.top);
+        mShaderMatrix.postConcat(imageMatrix);
+        mShaderMatrix.postTranslate(getPaddingLeft(), getPaddingTop());
+        mShader.setLocalMatrix(mShaderMatrix);
+
+        // Round the visible part of the content, clipped to the padding as with cropping scale types
+        mDrawBounds.set(bounds);
+        imageMatrix.mapRect(mDrawBounds);
+        mDrawBounds.offset(getPaddingLeft(), getPaddingTop());
+        if (!mDrawBounds.intersect(getPaddingLeft(), getPaddingTop(), getWidth() - getPaddingRight(), getHeight() - getPaddingBottom())) {
+            return;
+        }
+        mPaint.setAlpha(((BitmapDrawable) drawable).getPaint().getAlpha());
+        canvas.drawRoundRect(mDrawBounds, mCornerRadius, mCornerRadius, mPaint);
+    }
+}
@@ -0,0 +1,113 @@
+package com.layer.atlas.util.views;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.text.Layout;
+import android.text.Spanned;
+import android.text.style.ClickableSpan;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+
+/**
+ * TextLayoutView draws a text Layout built ahead of time, typically on a background thread, so
+ * binding only swaps the Layout instead of measuring and laying out text on the UI thread.  Taps on
+ * ClickableSpans within the Layout (e.g. links added by Linkify) are dispatched to the span.
+ */
+public class TextLayoutView extends View {
+    private Layout mLayout;
+    private ClickableSpan mPressedSpan;
+
+    public TextLayoutView(Context context) {
+        super(context);
+    }
+
+    public TextLayoutView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    public TextLayoutView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+    }
+
+    /**
+     * Sets the Layout to draw.  The view is only re-measured if the Layout's size changed.
+     *
+     * @param layout Layout to draw, or `null` to draw nothing.
+     */
+    public void setTextLayout(Layout layout) {
+        if (mLayout == layout) return;
+        boolean resize = mLayout == null || layout == null
+                || mLayout.getWidth() != layout.getWidth()
+                || mLayout.getHeight() != layout.getHeight();
+        mLayout = layout;
+        mPressedSpan = null;
+        setContentDescription(layout == null ? null : layout.getText());
+        if (resize) requestLayout();
+        invalidate();
+    }
+
+    public Layout getTextLayout() {
+        return mLayout;
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = getPaddingLeft() + getPaddingRight();
+        int height = getPaddingTop() + getPaddingBottom();
+        if (mLayout != null) {
+            width += mLayout.getWidth();
+            height += mLayout.getHeight();
+        }
+        width = Math.max(width, getSuggestedMinimumWidth());
+        height = Math.max(height, getSuggestedMinimumHeight());
+        setMeasuredDimension(resolveSize(width, widthMeasureSpec), resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mLayout == null) return;
+        canvas.save();
+        canvas.translate(getPaddingLeft(), getPaddingTop());
+        mLayout.draw(canvas);
+        canvas.restore();
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                mPressedSpan = findClickableSpan(event);
+                break;
+            case MotionEvent.ACTION_UP:
+                ClickableSpan span = findClickableSpan(event);
+                if (span != null && span == mPressedSpan) span.onClick(this);
+                mPressedSpan = null;
+                break;
+            case MotionEvent.ACTION_CANCEL:
+                mPressedSpan = null;
+                break;
+        }
+        boolean handled = super.onTouchEvent(event);
+        return handled || mPressedSpan != null;
+    }
+
+    @Override
+    public boolean performLongClick() {
+        // A long press consumes the gesture, so the pressed span should not also be clicked
+        mPressedSpan = null;
+        return super.performLongClick();
+    }
+
+    private ClickableSpan findClickableSpan(MotionEvent event) {
+        if (mLayout == null || !(mLayout.getText() instanceof Spanned)) return null;
+        int x = (int) event.getX() - getPaddingLeft();
+        int y = (int) event.getY() - getPaddingTop();
+        if (x < 0 || y < 0 || y >= mLayout.getHeight()) return null;
+        int line = mLayout.getLineForVertical(y);
+        if (x < mLayout.getLineLeft(line) || x > mLayout.getLineRight(line)) return null;
+        int offset = mLayout.getOffsetForHorizontal(line, x);
+        ClickableSpan[] spans = ((Spanned) mLayout.getText()).getSpans(offset, offset, ClickableSpan.class);
+        return spans.length == 0 ? null : spans[0];
+    }
+}